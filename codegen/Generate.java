@@ -0,0 +1,103 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *
+ * Generate
+ *
+ * Writes the code of src that is generated from the templates of this directory, so each algorithm is written once:
+ *
+ * - AVLCore.java.template is the balancing, join and split code of the trees. It is written on the node accessors
+ *   (left(x), setLeft(x, v), rank(x), ...), with NODE for the node type, NIL for a missing node and TREE for the tree type.
+ *   It is the code between the generated-code markers of AbstractAVLTree (object nodes, NIL is null)
+ *   and of AbstractIndexedAVLTree (int indexes into a node storage, NIL is the index of the virtual leaf).
+ * - IntValueAVLMap.java.template is the whole of the maps with int keys and a primitive value type:
+ *   IntIntAVLMap and IntLongAVLMap, with MAP for the class name and VALUE for the value type.
+ *
+ * The words are replaced as whole words only. Edit the templates, not the generated code, and run this from the root of the repository:
+ *
+ * usage: javac -d /tmp/codegen codegen/Generate.java && java -cp /tmp/codegen Generate [-check]
+ *
+ * -check writes nothing: it lists the files whose generated code differs from their templates and exits with status 1 if there are any.
+ *
+ */
+
+public class Generate {
+	static final Path TEMPLATES = Paths.get("codegen");
+	static final Path SOURCES = Paths.get("src");
+
+	//The markers around a generated part of a source file, with the name of its template
+	static final String BEGIN = "\t//GENERATED FROM codegen/%s - edit the template and run codegen/Generate.java\n";
+	static final String END = "\t//END OF GENERATED CODE\n";
+
+	//The first line of a source file that is generated as a whole
+	static final String HEADER = "//GENERATED FROM codegen/%s - edit the template and run codegen/Generate.java\n";
+
+	public static void main(String[] args) throws IOException {
+		boolean check = args.length == 1 && args[0].equals("-check");
+		if (args.length > 1 || (args.length == 1 && !check))
+			throw new IllegalArgumentException("usage: Generate [-check]");
+
+		Map<Path, String> files = new LinkedHashMap<>();
+		String core = read(TEMPLATES.resolve("AVLCore.java.template"));
+		files.put(SOURCES.resolve("AbstractAVLTree.java"), section(SOURCES.resolve("AbstractAVLTree.java"), "AVLCore.java.template",
+				replace(core, "NODE", "N", "NIL", "null", "TREE", "AbstractAVLTree<N>")));
+		files.put(SOURCES.resolve("AbstractIndexedAVLTree.java"), section(SOURCES.resolve("AbstractIndexedAVLTree.java"), "AVLCore.java.template",
+				replace(core, "NODE", "int", "NIL", "NIL", "TREE", "AbstractIndexedAVLTree")));
+
+		String map = read(TEMPLATES.resolve("IntValueAVLMap.java.template"));
+		String mapHeader = String.format(HEADER, "IntValueAVLMap.java.template");
+		files.put(SOURCES.resolve("IntIntAVLMap.java"), mapHeader + replace(map, "MAP", "IntIntAVLMap", "VALUE", "int"));
+		files.put(SOURCES.resolve("IntLongAVLMap.java"), mapHeader + replace(map, "MAP", "IntLongAVLMap", "VALUE", "long"));
+
+		List<Path> stale = new ArrayList<>();
+		for (Map.Entry<Path, String> e : files.entrySet()) {
+			if (e.getValue().equals(read(e.getKey())))
+				continue;
+			stale.add(e.getKey());
+			if (!check)
+				Files.write(e.getKey(), e.getValue().getBytes(StandardCharsets.UTF_8));
+		}
+		for (Path file : stale)
+			System.out.println((check ? "stale: " : "wrote: ") + file);
+		if (check && !stale.isEmpty())
+			System.exit(1);
+	}
+
+	static String read(Path file) throws IOException {
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+
+	//Replaces whole words of the text, given as pairs of a word and its replacement
+	static String replace(String text, String... pairs) {
+		Map<String, String> words = new LinkedHashMap<>();
+		for (int i = 0; i < pairs.length; i += 2)
+			words.put(pairs[i], pairs[i + 1]);
+		Matcher m = Pattern.compile("\\b(" + String.join("|", words.keySet()) + ")\\b").matcher(text);
+		StringBuffer out = new StringBuffer();
+		while (m.find())
+			m.appendReplacement(out, Matcher.quoteReplacement(words.get(m.group(1))));
+		m.appendTail(out);
+		return out.toString();
+	}
+
+	//The source file with the code between its markers of the given template replaced
+	static String section(Path file, String template, String code) throws IOException {
+		String text = read(file);
+		String begin = String.format(BEGIN, template);
+		int from = text.indexOf(begin);
+		int to = text.indexOf(END, from);
+		if (from < 0 || to < 0)
+			throw new IllegalStateException(file + " has no markers of " + template);
+		return text.substring(0, from + begin.length()) + code + text.substring(to);
+	}
+}
@@ -0,0 +1,141 @@
+package avl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * AVLTreeLatencyBenchmark
+ *
+ * The latency of one insert, delete or search, as the p50/p90/p99/p99.9 of the sampled calls (sample time mode).
+ * AVLTreeWriteBenchmark only times whole passes and AVLTreeReadBenchmark only counts searches/s.
+ *
+ * The tree keeps about size keys of the distribution dist all the time, so every call works on a tree of the same size:
+ *
+ * - insert: inserts a key that is not in the tree. The tree has all the keys but the next WINDOW ones of the insert order,
+ *   and after every call (outside of the timed part) the key WINDOW places ahead is deleted.
+ * - delete: deletes a key of the tree. The tree has all the keys but the last WINDOW ones that were deleted,
+ *   and after every call the oldest of them is inserted back.
+ * - search: looks for the next key of the accesses of AVLTreeBenchmark, as AVLTreeReadBenchmark.search does.
+ *
+ * Insert and delete walk the keys in the order of AVLTreeWriteBenchmark.inserts, so every call changes the tree.
+ * The window keeps the untimed call off the path of the next timed one. Each call is about a microsecond or less,
+ * so the scores include the cost of reading the clock (tens of ns) - compare them with each other, not with the pass times.
+ *
+ */
+
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class AVLTreeLatencyBenchmark {
+	static final int WINDOW = 1024; //The keys that insert and delete keep out of the tree (at most half of them)
+
+	//The tree and its keys, built once per fork
+	@State(Scope.Thread)
+	public static class Keys {
+		@Param({"1000", "10000", "100000", "1000000", "10000000"})
+		int size;
+
+		@Param({"sequential", "nearlySorted", "random", "zipfian"})
+		String dist;
+
+		@Param("42")
+		long seed;
+
+		AVLTree tree;
+		int[] order;         //The keys of insert and delete, in order
+		String[] orderInfos;
+		int[] access;        //The keys of search, in order
+		int window;          //The keys that are out of the tree
+		int next;            //The index of the key of the next call
+
+		@Setup(Level.Trial)
+		public void build() {
+			Random rnd = new Random(this.seed);
+			int[] keys = AVLTreeBenchmark.keys(this.dist, this.size, rnd);
+			String[] infos = AVLTreeBenchmark.infos(keys);
+			this.order = AVLTreeWriteBenchmark.inserts(this.dist, keys, rnd);
+			this.orderInfos = this.order == keys ? infos : AVLTreeBenchmark.infos(this.order);
+			this.access = AVLTreeBenchmark.accesses(this.dist, keys, rnd);
+			this.tree = AVLTreeBenchmark.build(keys, infos);
+			this.window = Math.min(WINDOW, this.size / 2);
+			out();
+		}
+
+		//Takes the keys of the window out of the tree
+		void out() {
+		}
+
+		//The index i places after (or before, for a negative i) the next one, in the cyclic order - O(1)
+		int at(int i) {
+			return Math.floorMod(this.next + i, this.order.length);
+		}
+
+		void advance() {
+			this.next = at(1);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class InsertKeys extends Keys {
+		void out() {
+			for (int i = 0; i < this.window; i++)
+				this.tree.delete(this.order[at(i)]);
+		}
+
+		@TearDown(Level.Invocation)
+		public void next() {
+			this.tree.delete(this.order[at(this.window)]);
+			advance();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class DeleteKeys extends Keys {
+		void out() {
+			for (int i = 1; i <= this.window; i++)
+				this.tree.delete(this.order[at(-i)]);
+		}
+
+		@TearDown(Level.Invocation)
+		public void next() {
+			int back = at(-this.window);
+			this.tree.insert(this.order[back], this.orderInfos[back]);
+			advance();
+		}
+	}
+
+	@Benchmark
+	public int insert(InsertKeys s) {
+		int i = s.next;
+		return s.tree.insert(s.order[i], s.orderInfos[i]);
+	}
+
+	@Benchmark
+	public int delete(DeleteKeys s) {
+		return s.tree.delete(s.order[s.next]);
+	}
+
+	@Benchmark
+	public String search(Keys s) {
+		int i = s.next;
+		s.next = i + 1 == s.access.length ? 0 : i + 1;
+		return s.tree.search(s.access[i]);
+	}
+}
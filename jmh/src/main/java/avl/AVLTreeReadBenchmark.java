@@ -0,0 +1,90 @@
+package avl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * AVLTreeReadBenchmark
+ *
+ * The operations of AVLTreeBenchmark that do not change the tree: search, keysToArray, infoToArray,
+ * their parallel versions and the parallel stream of keys() (keysStream).
+ * The tree of size keys of the distribution dist is built once per fork. A search is one operation,
+ * and so is one export of the whole tree, so the scores are searches/s and exports/s.
+ * The latency percentiles of a search are measured by AVLTreeLatencyBenchmark.
+ *
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class AVLTreeReadBenchmark {
+	@Param({"1000", "10000", "100000", "1000000", "10000000"})
+	int size;
+
+	@Param({"sequential", "nearlySorted", "random", "zipfian"})
+	String dist;
+
+	@Param("42")
+	long seed;
+
+	AVLTree tree;
+	int[] access;  //The keys that search looks for, in order
+	int next;      //The index of the next key to search
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random rnd = new Random(this.seed);
+		int[] keys = AVLTreeBenchmark.keys(this.dist, this.size, rnd);
+		this.access = AVLTreeBenchmark.accesses(this.dist, keys, rnd);
+		this.tree = AVLTreeBenchmark.build(keys, AVLTreeBenchmark.infos(keys));
+	}
+
+	@Benchmark
+	public String search() {
+		int i = this.next;
+		this.next = i + 1 == this.access.length ? 0 : i + 1;
+		return this.tree.search(this.access[i]);
+	}
+
+	@Benchmark
+	public int[] keysToArray() {
+		return this.tree.keysToArray();
+	}
+
+	@Benchmark
+	public String[] infoToArray() {
+		return this.tree.infoToArray();
+	}
+
+	@Benchmark
+	public int[] parallelKeysToArray() {
+		return this.tree.parallelKeysToArray();
+	}
+
+	@Benchmark
+	public String[] parallelInfoToArray() {
+		return this.tree.parallelInfoToArray();
+	}
+
+	@Benchmark
+	public int[] keysStream() {
+		return this.tree.keys().parallel().toArray();
+	}
+}
@@ -0,0 +1,180 @@
+package avl;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * AVLTreeWriteBenchmark
+ *
+ * The operations of AVLTreeBenchmark that change the tree: insert, delete, split and join.
+ * A tree can only be changed once, so every measured call gets fresh trees that are prepared before it is timed
+ * (single shot mode with a setup per invocation), and a call is a whole pass:
+ *
+ * - insert: size inserts of the keys of the distribution dist into an empty tree. Every insert adds a key:
+ *   for zipfian the keys come in the order of their first zipfian draw (see inserts), not as the accesses of AVLTreeBenchmark,
+ *   whose repeated hot keys would make most of the pass rejected duplicates.
+ * - delete: size deletes of the same keys, in the same order, from a tree that has all of them.
+ * - split, join: one split (or join) on every tree of a batch of min(1000, 1000000 / size) trees (at least one),
+ *   as in AVLTreeBenchmark, so the batch stays within a million nodes.
+ *
+ * The score is the time of a pass: divide it by size (or by the batch) for the time of one operation.
+ * The latency percentiles of one insert or delete are measured by AVLTreeLatencyBenchmark.
+ *
+ */
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class AVLTreeWriteBenchmark {
+
+	//The keys of a trial, and the trees of the next call
+	@State(Scope.Thread)
+	public static class Trees {
+		@Param({"1000", "10000", "100000", "1000000", "10000000"})
+		int size;
+
+		@Param({"sequential", "nearlySorted", "random", "zipfian"})
+		String dist;
+
+		@Param("42")
+		long seed;
+
+		Random rnd;
+		int[] keys;
+		String[] infos;
+		int[] order;                 //The keys of the insert and delete passes
+		String[] orderInfos;
+
+		AVLTree tree;                //The tree of the next insert or delete pass
+		AVLTree[] batch;             //The trees of the next split pass
+		int[] at;                    //The split keys of the batch
+		AVLTree[][] parts;           //The parts of the next join pass
+		AVLTree.IAVLNode[] middles;  //The middle nodes of the next join pass
+
+		@Setup(Level.Trial)
+		public void keys() {
+			this.rnd = new Random(this.seed);
+			this.keys = AVLTreeBenchmark.keys(this.dist, this.size, this.rnd);
+			this.infos = AVLTreeBenchmark.infos(this.keys);
+			this.order = inserts(this.dist, this.keys, this.rnd);
+			this.orderInfos = this.order == this.keys ? this.infos : AVLTreeBenchmark.infos(this.order);
+		}
+
+		void batch() {
+			this.batch = AVLTreeBenchmark.copies(this.keys, this.infos);
+			this.at = AVLTreeBenchmark.splitKeys(this.keys, this.batch.length, this.rnd);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class InsertTrees extends Trees {
+		@Setup(Level.Invocation)
+		public void prepare() {
+			this.tree = new AVLTree();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class DeleteTrees extends Trees {
+		@Setup(Level.Invocation)
+		public void prepare() {
+			this.tree = AVLTreeBenchmark.build(this.keys, this.infos);
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class SplitTrees extends Trees {
+		@Setup(Level.Invocation)
+		public void prepare() {
+			batch();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class JoinTrees extends Trees {
+		@Setup(Level.Invocation)
+		public void prepare() {
+			batch();
+			this.parts = new AVLTree[this.batch.length][];
+			this.middles = new AVLTree.IAVLNode[this.batch.length];
+			for (int i = 0; i < this.batch.length; i++) {
+				this.parts[i] = this.batch[i].split(this.at[i]);
+				this.middles[i] = new AVLTree.AVLNode(AVLTree.VIRTUAL, AVLTree.VIRTUAL, null, this.at[i], Integer.toString(this.at[i]));
+			}
+		}
+	}
+
+	/*
+	 * Every key of the distribution once, in the order that the inserts (and deletes) use them.
+	 * For zipfian, zipfian ranks are drawn over keys, which is a random permutation of the key set, so the hot keys are spread over it.
+	 * A key comes at its first draw, and the keys that were never drawn in size draws come last, in the order of keys.
+	 * For the other distributions these are the keys themselves. Time Complexity is O(size).
+	 */
+	static int[] inserts(String dist, int[] keys, Random rnd) {
+		if (!dist.equals("zipfian"))
+			return keys;
+		AVLTreeBenchmark.Zipfian zipf = new AVLTreeBenchmark.Zipfian(keys.length, 0.99);
+		BitSet drawn = new BitSet(keys.length);
+		int[] order = new int[keys.length];
+		int n = 0;
+		for (int i = 0; i < keys.length; i++) {
+			int rank = zipf.next(rnd);
+			if (!drawn.get(rank)) {
+				drawn.set(rank);
+				order[n++] = keys[rank];
+			}
+		}
+		for (int rank = drawn.nextClearBit(0); rank < keys.length; rank = drawn.nextClearBit(rank + 1))
+			order[n++] = keys[rank];
+		return order;
+	}
+
+	@Benchmark
+	public AVLTree insert(InsertTrees s) {
+		AVLTree t = s.tree;
+		for (int i = 0; i < s.order.length; i++)
+			t.insert(s.order[i], s.orderInfos[i]);
+		return t;
+	}
+
+	@Benchmark
+	public AVLTree delete(DeleteTrees s) {
+		AVLTree t = s.tree;
+		for (int i = 0; i < s.order.length; i++)
+			t.delete(s.order[i]);
+		return t;
+	}
+
+	@Benchmark
+	public int split(SplitTrees s) {
+		int sink = 0;
+		for (int i = 0; i < s.batch.length; i++)
+			sink += s.batch[i].split(s.at[i])[0].size();
+		return sink;
+	}
+
+	@Benchmark
+	public int join(JoinTrees s) {
+		int sink = 0;
+		for (int i = 0; i < s.parts.length; i++)
+			sink += s.parts[i][0].join(s.middles[i], s.parts[i][1]);
+		return sink;
+	}
+}
@@ -0,0 +1,125 @@
+package avl;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ *
+ * ConcurrentAVLTreeMixedBenchmark
+ *
+ * The mixed operation of AVLTreeBenchmark: all the threads run reads-% searches, and inserts and deletes for the rest,
+ * on one ConcurrentAVLTree that starts with every other key of the distribution, so about half of the updates find their key.
+ * Every thread walks its own slice of the accesses. The thread count is the one of JMH (-t, 1 by default),
+ * and the score is the total operations/s of all the threads.
+ *
+ * JMH runs one thread count per run, so main runs the benchmark once for each count of a list, like -threads of AVLTreeBenchmark:
+ *
+ * usage: java -cp target/benchmarks.jar avl.ConcurrentAVLTreeMixedBenchmark [-threads 1,2,4,...,64] [JMH options, e.g. -p size=100000]
+ *
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class ConcurrentAVLTreeMixedBenchmark {
+	static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+	public static void main(String[] args) throws Exception {
+		int[] threads = THREADS;
+		if (args.length >= 2 && args[0].equals("-threads")) {
+			threads = AVLTreeBenchmark.ints(args[1]);
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+		CommandLineOptions options = new CommandLineOptions(args);
+		for (int t : threads) {
+			new Runner(new OptionsBuilder().parent(options)
+					.include(ConcurrentAVLTreeMixedBenchmark.class.getName() + ".mixed")
+					.threads(t)
+					.build()).run();
+		}
+	}
+
+	//The tree and the workload, shared by all the threads
+	@State(Scope.Benchmark)
+	public static class Workload {
+		@Param({"1000", "10000", "100000", "1000000", "10000000"})
+		int size;
+
+		@Param({"sequential", "nearlySorted", "random", "zipfian"})
+		String dist;
+
+		@Param("90")
+		int reads;
+
+		@Param("42")
+		long seed;
+
+		ConcurrentAVLTree tree;
+		int[] access;
+		String[] accessInfos;
+		byte[] kinds; //0 - search, 1 - insert, 2 - delete
+		final AtomicInteger slices = new AtomicInteger();
+
+		@Setup(Level.Trial)
+		public void setup() {
+			Random rnd = new Random(this.seed);
+			int[] keys = AVLTreeBenchmark.keys(this.dist, this.size, rnd);
+			String[] infos = AVLTreeBenchmark.infos(keys);
+			this.access = AVLTreeBenchmark.accesses(this.dist, keys, rnd);
+			this.accessInfos = this.access == keys ? infos : AVLTreeBenchmark.infos(this.access);
+			this.tree = new ConcurrentAVLTree();
+			for (int i = 0; i < keys.length; i += 2)
+				this.tree.insert(keys[i], infos[i]);
+			this.kinds = new byte[this.access.length];
+			for (int i = 0; i < this.kinds.length; i++)
+				this.kinds[i] = (byte) (rnd.nextInt(100) < this.reads ? 0 : 1 + rnd.nextInt(2));
+		}
+	}
+
+	//The position of a thread in the accesses - every thread starts at a slice of its own
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+
+		@Setup(Level.Trial)
+		public void setup(Workload w, BenchmarkParams params) {
+			int slice = w.slices.getAndIncrement();
+			this.next = (int) ((long) w.access.length * slice / params.getThreads());
+		}
+	}
+
+	@Benchmark
+	public int mixed(Workload w, Cursor c) {
+		int i = c.next;
+		c.next = i + 1 == w.access.length ? 0 : i + 1;
+		switch (w.kinds[i]) {
+		case 0:
+			return w.tree.search(w.access[i]) != null ? 1 : 0;
+		case 1:
+			return w.tree.insert(w.access[i], w.accessInfos[i]);
+		default:
+			return w.tree.delete(w.access[i]);
+		}
+	}
+}
@@ -1,6 +1,17 @@
 import java.util.Arrays;
-
-
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 /**
  *
@@ -12,14 +23,23 @@ import java.util.Arrays;
  */
 
 public class AVLTree {
+	/*
+	 * The virtual leaf that is shared by all the real nodes of all the trees, so no virtual node is allocated per insertion.
+	 * It keeps the semantics of a virtual node: isRealNode() is false, height is -1, size is 0, key is -1 and value is null.
+	 * Rotations and deletions set the parent of a child without checking if it is virtual, so the setters of AVLNode ignore
+	 * this node, and the code that writes fields directly only does so on real nodes.
+	 */
+	static final AVLNode VIRTUAL = new AVLNode();
+
 	IAVLNode root;  //A pointer to the root of the tree
 	int n; 			//This is the number of items in the tree
 	IAVLNode min;   //A pointer to the node with the minimum key in the tree
 	IAVLNode max;   //A pointer to the node with the maximum key in the tree
-	
-	public static int joinCounter;
-	public static int counting;
-	public static int maxJoin;
+	AVLNode finger;         //The node that insert or delete touched last, where the next insert starts - null if there is none
+	boolean fingerNear;     //True if the last insert found its place low in the tree, so the keys come near each other
+	AVLTreeMetrics metrics; //The rebalancing counters of the tree, null when they are off (the default)
+	int modCount;           //The number of structural changes of the tree, so its iterators fail fast when it changes under them
+	private Balancer balancer; //The join code of AbstractAVLTree for the nodes of this tree, made on the first join
 
 
 	//This is the only constructor of an AVLTree. It initializes the pointers to null, and number of elements to 0.
@@ -32,7 +52,7 @@ public class AVLTree {
 
 	}
 	//this is the constructor which get an IAVLNode node and build an AVLTree according to his fields.
-	//we use this constructor only in split method which will be explained on later 
+	//min and max are found by walking the sub-tree - O(log n) time Complexity
 	public AVLTree(IAVLNode node) {
 		if (!node.isRealNode()) {
 			this.root=null;
@@ -44,8 +64,119 @@ public class AVLTree {
 			node.setParent(null);
 			this.root = node;
 			this.n = node.getSize();
+			updateMin();
+			updateMax();
+		}
+	}
+
+	/**
+	 * public AVLTreeMetrics enableMetrics()
+	 *
+	 * Starts counting the rebalancing operations of this tree and returns the counters (the same ones if they are already on).
+	 * The trees that split returns share the counters of the split tree.
+	 */
+	public AVLTreeMetrics enableMetrics() {
+		if(this.metrics == null)
+			this.metrics = new AVLTreeMetrics();
+		return this.metrics;
+	}
+
+	/**
+	 * public void disableMetrics()
+	 *
+	 * Stops counting. The counters that enableMetrics returned keep their values.
+	 */
+	public void disableMetrics() {
+		this.metrics = null;
+	}
+
+	/**
+	 * public AVLTreeMetrics getMetrics()
+	 *
+	 * Returns the counters of this tree, or null if they are off.
+	 */
+	public AVLTreeMetrics getMetrics() {
+		return this.metrics;
+	}
+
+	//Counts rank changes of the rebalancing - O(1), and only a null check when the metrics are off
+	private void countRanks(int promotions, int demotions) {
+		AVLTreeMetrics metrics = this.metrics;
+		if(metrics != null) {
+			if(promotions != 0)
+				metrics.promotions.add(promotions);
+			if(demotions != 0)
+				metrics.demotions.add(demotions);
 		}
 	}
+
+	//Counts one rotation - O(1), and only a null check when the metrics are off
+	private void countRotation() {
+		AVLTreeMetrics metrics = this.metrics;
+		if(metrics != null)
+			metrics.rotations.increment();
+	}
+
+	/**
+	 * public static AVLTree fromSorted(int[] keys, String[] infos)
+	 *
+	 * Builds a tree of the items (keys[i], infos[i]). The keys must be strictly increasing,
+	 * and infos must be null (all infos are null) or as long as keys, otherwise IllegalArgumentException is thrown.
+	 */
+	//Time complexity is O(n): no search and no rebalancing, the tree is built in place as in fromSortedIterator.
+	public static AVLTree fromSorted(int[] keys, String[] infos) {
+		if(infos != null && infos.length != keys.length)
+			throw new IllegalArgumentException(keys.length + " keys but " + infos.length + " infos");
+		return fromSortedIterator(keys.length, Arrays.stream(keys).iterator(), infos == null ? null : Arrays.asList(infos).iterator());
+	}
+
+	/**
+	 * public static AVLTree fromSortedIterator(int size, PrimitiveIterator.OfInt keys, Iterator<String> infos)
+	 *
+	 * Builds a tree of the first size keys and infos of the iterators, read once and in order, so they may stream from a file.
+	 * The keys must be strictly increasing, otherwise IllegalArgumentException is thrown (also if an iterator has fewer than size elements).
+	 * If infos is null all the infos are null.
+	 */
+	/*
+	 * The tree is built in order: the left sub-tree gets (size-1)/2 items, then the node, then the right sub-tree gets the rest.
+	 * The sizes of the two sub-trees of every node differ by at most 1, so their heights do too and the tree is a valid AVL tree,
+	 * whose rank and size fields are set on the way up. The first node is the minimum and the last one is the maximum.
+	 * Time complexity is O(n), and the recursion depth is O(log n).
+	 */
+	public static AVLTree fromSortedIterator(int size, PrimitiveIterator.OfInt keys, Iterator<String> infos) {
+		if(size < 0)
+			throw new IllegalArgumentException("negative size: " + size);
+		AVLTree tree = new AVLTree();
+		if(size > 0) {
+			tree.root = tree.buildSorted(size, keys, infos);
+			tree.n = size;
+		}
+		return tree;
+	}
+
+	//Builds the sub-tree of the next size items of the iterators and returns its root (the virtual leaf if size is 0)
+	private AVLNode buildSorted(int size, PrimitiveIterator.OfInt keys, Iterator<String> infos) {
+		if(size == 0)
+			return VIRTUAL;
+		int leftSize = (size - 1) / 2;
+		AVLNode left = buildSorted(leftSize, keys, infos);
+		if(!keys.hasNext() || (infos != null && !infos.hasNext()))
+			throw new IllegalArgumentException("the input has fewer than the given number of items");
+		int k = keys.nextInt();
+		if(this.max != null && k <= this.max.getKey())
+			throw new IllegalArgumentException("the keys are not strictly increasing: " + k + " after " + this.max.getKey());
+		AVLNode node = new AVLNode(VIRTUAL, left, null, k, infos == null ? null : infos.next());
+		left.setParent(node);
+		if(this.min == null)
+			this.min = node;
+		this.max = node;
+		AVLNode right = buildSorted(size - 1 - leftSize, keys, infos);
+		node.right = right;
+		right.setParent(node);
+		node.rank = Math.max(left.rank, right.rank) + 1;
+		node.size = size;
+		return node;
+	}
 		
 	
 	/**
@@ -75,22 +206,40 @@ public class AVLTree {
 		return search(k,this.root);
 	}
 
-	//Auxiliary method for the search method. This is the recursive function that actually searches for a node with key k
+	//Auxiliary method for the search method. It searches for a node with key k in the sub-tree of node, in a loop with no recursion,
+	//and it reads the key of every node once. A virtual leaf ends the search, so a key of -1 never matches the key of a virtual node.
 	//Time complexity is O(log n). Over each level of tree(O(log n) levels) it visits one node and does O(1) computations.
-	public String search(int k,IAVLNode node) {//Auxiliary method
-		if (node == null) {
+	//It reads the fields of the nodes directly (see AVLNode), so the loop has no calls at all.
+	public String search(int k,IAVLNode start) {//Auxiliary method
+		if (start == null)
 			return null;
-		}
-		if (node.getKey() == k) { //found the key - return the value of the node
-			return node.getValue();
-		}
-		if(node.getKey() > k) { //need to search on right sub tree
-			return search(k,node.getLeft());
-		}
-		if (node.getKey() < k) { //need to search on left sub tree
-			return search(k,node.getRight());
-		}
-		return null; // THIS IS NEVER REACHED
+		AVLNode node = (AVLNode) start;
+		while (node.rank != -1) {
+			int key = node.key;
+			if (key == k) //found the key - return the value of the node
+				return node.info;
+			node = key > k ? node.left : node.right;
+		}
+		return null;
+	}
+
+	/**
+	 * public boolean containsKey(int k)
+	 *
+	 * returns true if and only if an item with key k exists in the tree
+	 */
+
+	//This method checks if there is a node with key k in the tree. Unlike search(k) != null, it is also correct for items with a null info.
+	//Time complexity is O(log n), as it is a single descent from the root to the node (or to a virtual leaf).
+	public boolean containsKey(int k) {
+		AVLNode node = this.root == null ? VIRTUAL : (AVLNode) this.root;
+		while (node.rank != -1) {
+			int key = node.key;
+			if (key == k)
+				return true;
+			node = key > k ? node.left : node.right;
+		}
+		return false;
 	}
 
 
@@ -106,6 +255,7 @@ public class AVLTree {
 	/*This is the insertion function to a tree. It receives a key k and a value string i
 	If there is a node with key k - returns -1. If there is no node with key k - inserts the node to tree,
 	After insertion, maintains a BST, and maintains AVL tree by rebalancing the tree.
+	The search starts at the node that the last insert or delete touched (the finger), see insert(k, i, hint).
 	Time Complexity is O(log n). There is a final number of methods done in this function, each is at worse case O(log n).
 	Each part of the function is documented and the complexity of it is written near part.
 	Returned Value is the number of rebalancing operations needed: demotes,promotes, left-rotates, right-rotates, and double rotates(counted as 2).
@@ -113,45 +263,96 @@ public class AVLTree {
 
 	 */
 	public int insert(int k, String i) {
-		//Some required pointers.
-		AVLNode z = new AVLNode(new AVLNode(), new AVLNode(), null ,k, i);
-		IAVLNode newnode =  new AVLNode(new AVLNode(), new AVLNode(), null ,k, i);
-		IAVLNode x = this.getRoot();
-		IAVLNode y = x;
+		AVLNode hint = this.finger;
+		// When the keys do not come near each other, going up from the finger is wasted, so the insert starts at the root
+		// until a new minimum or maximum (which start right at min or max) shows that the keys may be near again.
+		if(hint != null && !this.fingerNear && this.min.getKey() <= k && k <= this.max.getKey())
+			hint = null;
+		return insertFrom(k, i, hint);
+	}
+
+	/**
+	 * public int insert(int k, String i, IAVLNode hint)
+	 *
+	 * Like insert(k, i), where the search for the place of k starts at hint instead of the root.
+	 * hint should be a node of this tree, such as one that floorEntry or ceilingEntry returned.
+	 * If it is null, a virtual node, or not a node of this tree (a node of another tree, or one that delete or split
+	 * took out of this tree), the search starts at the root, so a wrong hint only costs time.
+	 */
+	//The hint is checked by going up from it to the top of its tree, which has to be the root of this tree - O(depth of hint),
+	//pointer reads with no comparisons. The finger of insert(k, i) is kept by the tree itself, so it is not checked.
+	public int insert(int k, String i, IAVLNode hint) {
+		return insertFrom(k, i, inTree(hint) ? (AVLNode) hint : null);
+	}
 
+	//Returns true iff node is a real node of this tree - O(log n)
+	private boolean inTree(IAVLNode node) {
+		if(!(node instanceof AVLNode) || this.root == null)
+			return false;
+		AVLNode top = (AVLNode) node;
+		if(top.rank == -1)
+			return false;
+		while(top.parent != null)
+			top = top.parent;
+		return top == this.root;
+	}
+
+	/*
+	 * The search goes up from hint by the parent pointers to the lowest node whose sub-tree is where k belongs (see climb),
+	 * and down from there, so it compares O(log d) keys, where d is the number of keys between k and the key of hint.
+	 * An insert of a new maximum or minimum starts right at max or min, so appends compare O(1) keys.
+	 * The sizes of all the nodes above the new one still grow by 1, which is a loop of O(log n) increments with no comparisons,
+	 * and the rebalancing is O(1) amortized - so an insert near the finger costs O(log d) comparisons plus that loop.
+	 * The new node becomes the finger, and it is near if the descent started in the lower half of the tree.
+	 * hint must be a real node of this tree or null.
+	 */
+	private int insertFrom(int k, String i, AVLNode hint) {
 		//If the tree is empty then there are no keys in it. Here we add the first node in the tree.
 		//Time Complexity O(1)
 		if(this.empty()) {
+			//The new node is the only object allocated by an insertion - both of its children are the shared virtual leaf.
+			IAVLNode newnode = new AVLNode(VIRTUAL, VIRTUAL, null ,k, i);
 			this.root = newnode;
 			this.min = newnode;
 			this.max = newnode;
 			//We create a node with size = 1 by default so no need to set size here
 			this.n++;
+			this.modCount++;
+			this.finger = (AVLNode) newnode;
+			this.fingerNear = true;
 			return 0;
 		}
 
-
-		//Searches if the key k is already in the tree. If there is a node with key k - returns -1
-		//Time Complexity O(log n) as explained in the search method
-		if (search(k) != null) 
-			return -1; 
-
-		// Here we look where to insert - by making a binary search on the tree - Time Complexity is O(log n)
-		while (x.isRealNode()) {
-			x.setSize(x.getSize()+1);
+		// Here we look where to insert - by making a binary search on the sub-tree where k belongs - Time Complexity is O(log d)
+		// The same descent finds out if the key k is already in the tree, so there is no separate search before it.
+		// The descent reads the fields of the nodes directly, as every node on it is real.
+		AVLNode x = hint == null ? (AVLNode) this.root : this.climb(hint, k);
+		boolean near = x.rank <= ((AVLNode) this.root).rank / 2;
+		AVLNode y = x;
+		while (x.rank != -1) {
+			int key = x.key;
+			if (key == k) // There is a node with key k - nothing was changed yet
+				return -1;
 			y = x;//keep a pointer to previous x
-			if (x.getKey()>k)//go to left sub-tree
-				x = x.getLeft();
-			else {//go to right sub-tree
-				x = x.getRight();
-			}
+			x = key > k ? x.left : x.right; //go to the left or the right sub-tree
 		}
+		AVLNode newnode = new AVLNode(VIRTUAL, VIRTUAL, null ,k, i);
+		this.finger = newnode;
+		this.fingerNear = near;
+		for (AVLNode a = y; a != null; a = a.parent) // the new node is in the sub-trees of y and all the nodes above it
+			a.size++;
+
+		// The new node is the new minimum (maximum) iff its key is smaller (larger) than the current one - O(1) time complexity.
+		if (k < this.min.getKey())
+			this.min = newnode;
+		if (k > this.max.getKey())
+			this.max = newnode;
 
 		// In this part we actually insert to the tree. Insertion is only done to an unary node or a leaf.
 		//y is the parent that we insert to his left or right side
 		int oldRank = y.getHeight(); //Leaf - 0 or Unary - 1
 
-		// Insertion into an unary node - Complexity is O(log n) as we have to update the min/max attributes.
+		// Insertion into an unary node - Complexity is O(1) as no rebalancing is needed.
 		if(oldRank == 1) { 
 			newnode.setParent(y);//change the parent pointer of the newnode to y
 			if (y.getKey() > newnode.getKey())
@@ -159,8 +360,7 @@ public class AVLTree {
 			else
 				y.setRight(newnode);//change the right pointer of y to newnode
 			this.n++;
-			this.updateMax();
-			this.updateMin();
+			this.modCount++;
 			return 0;
 		}
 
@@ -175,6 +375,7 @@ public class AVLTree {
 		}
 
 		this.n++;
+		this.modCount++;
 
 		//rebalance stage: we need to check y rank-difference and rebalncing it if needed 
 		//all rank-difference options of the parent after insertion of new node to his left or right
@@ -182,26 +383,55 @@ public class AVLTree {
 		//rebalance function takes at worst case - O(log n) time.
 		int finalresult = rebalance(y, 0);
 
-		// Updating minimum after insertion and rebalance - takes O(log n) time complexity
-		this.updateMin();
-
-		//Updating maximum after insertion and rebalance - takes O(log n) time complexity
-		this.updateMax();
-
 		return finalresult;
 
 
 	}
 
+	/*
+	 * Returns the lowest node on the way up from start whose sub-tree is where k belongs, or the node of k itself if it is on the way.
+	 * The keys of the sub-tree of a node are bounded by its nearest ancestors that it is on the left and on the right of,
+	 * so for k > key of start the climb goes up from right children, and stops below the first parent that is larger than k
+	 * (and symmetrically for k < key of start). A new maximum or minimum belongs right under max or min.
+	 * Time Complexity is O(log d), where d is the number of keys between k and the key of start.
+	 */
+	private AVLNode climb(AVLNode start, int k) {
+		AVLNode node = (AVLNode) this.max;
+		if(k > node.key)
+			return node;
+		node = (AVLNode) this.min;
+		if(k < node.key)
+			return node;
+		node = start;
+		if(k > node.key) {
+			for(AVLNode p = node.parent; p != null; p = node.parent) {
+				if(p.key >= k && node == p.left)
+					return p.key == k ? p : node;
+				node = p;
+			}
+		}
+		else if(k < node.key) {
+			for(AVLNode p = node.parent; p != null; p = node.parent) {
+				if(p.key <= k && node == p.right)
+					return p.key == k ? p : node;
+				node = p;
+			}
+		}
+		return node;
+	}
+
 	/* This function updates the minimum attribute. Time complexity is O(log n). 
 	 * The function goes from the root to the left side of the tree as much as possible.
-	 * Therefore time complexity is similar to the height of the tree which is O(log n) */
+	 * Therefore time complexity is similar to the height of the tree which is O(log n)
+	 * The operations of the tree keep min up to date by themselves, this is for trees that are built from a given sub-tree. */
 	public void updateMin() {
-		IAVLNode cur = this.root;
-		if(cur == null)
+		if(this.root == null) {
+			this.min = null;
 			return;
-		while(cur.getLeft().isRealNode())
-			cur = cur.getLeft();
+		}
+		AVLNode cur = (AVLNode) this.root;
+		while(cur.left.rank != -1)
+			cur = cur.left;
 		this.min = cur;
 	}
 
@@ -209,16 +439,72 @@ public class AVLTree {
 	 * This function updates the maximum attribute. Time complexity is O(log n).
 	 * The function goes from the root to the right side of the tree as much as possible
 	 * Therefore time complexity is similar to the height of tree which is O(log n).
+	 * The operations of the tree keep max up to date by themselves, this is for trees that are built from a given sub-tree.
 	 */
 	public void updateMax() {
-		IAVLNode cur = this.root;
-		if(cur == null)
+		if(this.root == null) {
+			this.max = null;
 			return;
-		while(cur.getRight().isRealNode())
-			cur = cur.getRight();
+		}
+		AVLNode cur = (AVLNode) this.root;
+		while(cur.right.rank != -1)
+			cur = cur.right;
 		this.max = cur;
 	}
 
+	/**
+	 * public IAVLNode successor(IAVLNode node)
+	 *
+	 * Returns the node with the smallest key that is larger than the key of the given node of this tree,
+	 * or null if the node holds the maximum.
+	 */
+	/*
+	 * It goes down to the leftmost node of the right sub-tree,
+	 * or up the parent pointers until it comes from a left child.
+	 * Time complexity is O(log n) at the worst case, and O(1) amortized over an in-order walk.
+	 */
+	public IAVLNode successor(IAVLNode start) {
+		AVLNode node = (AVLNode) start;
+		if(node.right.rank != -1) {
+			node = node.right;
+			while(node.left.rank != -1)
+				node = node.left;
+			return node;
+		}
+		AVLNode parent = node.parent;
+		while(parent != null && node == parent.right) {
+			node = parent;
+			parent = parent.parent;
+		}
+		return parent;
+	}
+
+	/**
+	 * public IAVLNode predecessor(IAVLNode node)
+	 *
+	 * Returns the node with the largest key that is smaller than the key of the given node of this tree,
+	 * or null if the node holds the minimum.
+	 */
+	/*
+	 * This is the symmetric function of successor.
+	 * Time complexity is O(log n) at the worst case, and O(1) amortized over an in-order walk.
+	 */
+	public IAVLNode predecessor(IAVLNode start) {
+		AVLNode node = (AVLNode) start;
+		if(node.left.rank != -1) {
+			node = node.left;
+			while(node.right.rank != -1)
+				node = node.right;
+			return node;
+		}
+		AVLNode parent = node.parent;
+		while(parent != null && node == parent.left) {
+			node = parent;
+			parent = parent.parent;
+		}
+		return parent;
+	}
+
 	/* This is the rebalancing function after an insertion.
 	 * This function handles and corrects all un-balanced cases of the tree.
 	 * This function follows the powerpoint and the lecture notes strictly.
@@ -227,104 +513,93 @@ public class AVLTree {
 	 * Complexity of the function at worst-case is O(log n) as it might be required to visit every level of the tree and rebalance it.
 	 * At each level, we rebalance the tree with O(1) time operations,
 	 * and therefore the total complexity of the function is similar to the height of tree.
+	 * The function is a loop that moves y up on a promotion, and the rank differences are kept in local ints,
+	 * so rebalancing allocates no memory at all.
 	 * Total Complexity: O(log n)
 	 * Returned Value is the number of rebalancing operations needed: demotes,promotes, left-rotates, right-rotates, and double rotates(counted as 2).
 
 	 */
 	public int rebalance(IAVLNode y, int counter) {
+		while (true) {
+			//Here we calculate the differences of the given node y - Time Complexity O(1)
+			int leftDiff = y.getHeight() - y.getLeft().getHeight();
+			int rightDiff = y.getHeight() - y.getRight().getHeight();
 
-		// All differences that might be
-		int []difference1_1 = {1,1};
-		int []difference0_1 = {0,1};
-		int []difference1_0 = {1,0};
-		int []difference0_2 = {0,2};
-		int []difference2_0 = {2,0};
-		int []difference2_1 = {2,1};
-		int []difference1_2 = {1,2};
-
-		//Here we calculate the difference of the given node y - Time Complexity O(1)
-		int[] diff = RankDifference(y);
-
-		// This is a final case - no need to rebalance anymore
-		if(Arrays.equals(diff,difference1_1)) 
-			return counter;
-
-		//All cases that need to be rebalanced are down.
-
-		//Case 1 in the power-point. This is promotion thats rolls the problem up
-		// Time Complexity O(log n) as the problem might roll up
-		if(Arrays.equals(diff,difference0_1) || Arrays.equals(diff,difference1_0)) { // CASE 1
-			if(y == this.root) {
-				y.setHeight(y.getHeight()+1);//promote y
-				counter = counter+ 1;
+			// This is a final case - no need to rebalance anymore
+			if(leftDiff == 1 && rightDiff == 1)
 				return counter;
-			}
-
-			y.setHeight(y.getHeight()+1); //promote y
-			counter = counter + 1;
-			return rebalance(y.getParent(), counter);
-		}
 
-		// ALL OPTIONS FOR CASE 2: Y is Z in the power-point p26
-		// Time Complexity is O(1) as no additional actions are required
+			//All cases that need to be rebalanced are down.
 
-		// Case 2 left - we need right rotate (exactly like in powerpoint)
-		if(Arrays.equals(diff,difference0_2) ) {
-			int[] diff_left = RankDifference(y.getLeft()); // Difference of left kid
-			if (Arrays.equals(diff_left,difference1_2)) {
-				RightRotate(y);
-				y.setHeight(y.getHeight()-1);
-				counter += 2; // For rotation and demote
-				return counter;
+			//Case 1 in the power-point. This is promotion thats rolls the problem up
+			// Time Complexity O(log n) as the problem might roll up
+			if((leftDiff == 0 && rightDiff == 1) || (leftDiff == 1 && rightDiff == 0)) { // CASE 1
+				y.setHeight(y.getHeight()+1); //promote y
+				counter = counter + 1;
+				countRanks(1, 0);
+				if(y == this.root)
+					return counter;
+				y = y.getParent();
+				continue;
 			}
 
-		}
-
-		// Case 2 right - we need left rotate - symmetric case
-		if(Arrays.equals(diff,difference2_0)) {
-			int[] diff_right = RankDifference(y.getRight()); // Difference of right kid
-			if ( Arrays.equals(diff_right,difference2_1)) {
-				LeftRotate(y);
-				y.setHeight(y.getHeight()-1);
-				counter += 2;
-				return counter;
+			// ALL OPTIONS FOR CASE 2 AND CASE 3: Y is Z in the power-point p26
+			// Time Complexity is O(1) - only a finite number of operations is needed
+
+			if(leftDiff == 0 && rightDiff == 2) {
+				IAVLNode x = y.getLeft();
+				int xLeftDiff = x.getHeight() - x.getLeft().getHeight(); // Difference of left kid
+				int xRightDiff = x.getHeight() - x.getRight().getHeight();
+				// Case 2 left - we need right rotate (exactly like in powerpoint)
+				if(xLeftDiff == 1 && xRightDiff == 2) {
+					RightRotate(y);
+					y.setHeight(y.getHeight()-1);
+					counter += 2; // For rotation and demote
+					countRanks(0, 1);
+					return counter;
+				}
+				// This is the case 3 in the powerpoint p27
+				if(xLeftDiff == 2 && xRightDiff == 1) {
+					IAVLNode b = x.getRight();
+					LeftRotate(x);
+					RightRotate(y);
+					b.setHeight(b.getHeight()+1);
+					b.getLeft().setHeight(b.getLeft().getHeight()-1);
+					b.getRight().setHeight(b.getRight().getHeight()-1);
+					counter += 5;
+					countRanks(1, 2);
+					return counter;
+				}
 			}
-		}
-
 
-		// ALL OPTIONS FOR CASE 3
-		// Time Complexity is O(1) - only a finite number of operations is needed
-
-		IAVLNode b = y.getLeft().getRight();
-		if(Arrays.equals(diff,difference0_2)) { // This is the case in the powerpoint p27
-			int[] diff_left = RankDifference(y.getLeft()); // Difference of left kid
-			if (Arrays.equals(diff_left,difference2_1)) {
-				LeftRotate(y.getLeft());
-				RightRotate(y);			
-				b.setHeight(b.getHeight()+1);
-				b.getLeft().setHeight(b.getLeft().getHeight()-1);
-				b.getRight().setHeight(b.getRight().getHeight()-1);
-				counter += 5;
-				return counter;
+			if(leftDiff == 2 && rightDiff == 0) {
+				IAVLNode x = y.getRight();
+				int xLeftDiff = x.getHeight() - x.getLeft().getHeight(); // Difference of right kid
+				int xRightDiff = x.getHeight() - x.getRight().getHeight();
+				// Case 2 right - we need left rotate - symmetric case
+				if(xLeftDiff == 2 && xRightDiff == 1) {
+					LeftRotate(y);
+					y.setHeight(y.getHeight()-1);
+					counter += 2;
+					countRanks(0, 1);
+					return counter;
+				}
+				//Symmetric case 3
+				if(xLeftDiff == 1 && xRightDiff == 2) {
+					IAVLNode a = x.getLeft();
+					RightRotate(x);
+					LeftRotate(y);
+					a.setHeight(a.getHeight()+1);
+					a.getLeft().setHeight(a.getLeft().getHeight()-1);
+					a.getRight().setHeight(a.getRight().getHeight()-1);
+					counter += 5;
+					countRanks(1, 2);
+					return counter;
+				}
 			}
-		}
 
-		//Symmetric case 3
-		IAVLNode a = y.getRight().getLeft();
-		if(Arrays.equals(diff,difference2_0) ) { // This is the symmetric case 3
-			int[] diff_right = RankDifference(y.getRight()); // Difference of right kid
-			if (Arrays.equals(diff_right,difference1_2)) {
-				RightRotate(y.getRight());
-				LeftRotate(y);
-				a.setHeight(a.getHeight()+1);
-				a.getLeft().setHeight(a.getLeft().getHeight()-1);
-				a.getRight().setHeight(a.getRight().getHeight()-1);
-				counter += 5;
-				return counter;
-			}
+			return counter;//we never get here
 		}
-
-		return counter;//we never get here
 	}
 
 	/*
@@ -332,6 +607,7 @@ public class AVLTree {
 	 * It computates the rank difference between himself and his left side, and between himself and his right side
 	 * It returns an array in the form of: [left difference, right difference]
 	 * Time Complexity is O(1) constant as only a finite number of operations is needed
+	 * The rebalancing functions compute the two differences inline instead, as this allocates an array on every call.
 	 */
 	public static int [] RankDifference(IAVLNode node){//not meant for null or virtual nodes 
 		int []rankdifference = new int[2];
@@ -347,6 +623,7 @@ public class AVLTree {
 	 * Time Complexity is O(1) as there is a constant number of operations that each take O(1).
 	 */
 	public void RightRotate(IAVLNode y) {
+		countRotation();
 		IAVLNode x = y.getLeft();
 		IAVLNode b = x.getRight();
 		y.setLeft(b);
@@ -378,6 +655,7 @@ public class AVLTree {
 	 * Time Complexity is O(1) as there is a constant number of operations that each take O(1).
 	 */
 	public void LeftRotate(IAVLNode x) {//this method receive only real nodes
+		countRotation();
 		IAVLNode y = x.getRight();//y is the right child of x: we want to rotate between x and y 
 		x.setRight(y.getLeft());//change the right pointer of x to left sub-tree of y
 		y.getLeft().setParent(x);//change the parent pointer of y.left to x
@@ -427,7 +705,8 @@ public class AVLTree {
 	/* This is the deletion function from the tree. The function receives a key k and deletes the node with the key k.
 	 * If the there is no such node(with key k) it returns -1. This might end in O(log n) time complexity.
 	 * The deletion process is identical to the process that was taught at the lectures and is in the power-point.
-	 * The deletion of a node takes O(log n) complexity time. The search takes O(log n). The deletion itself is also O(log n).
+	 * The node is looked up with a single descent from the root, which also detects a missing key - O(log n).
+	 * A node with 2 kids is replaced by its successor node itself (the successor is moved, not copied), so no node is allocated.
 	 * After a successful deletion of the node, a set of rebalancing operations might be needed.
 	 * The rebalancing operations also take up-to O(log n) complexity time.
 	 * The total time complexity of a deletion process is O(log n).
@@ -435,298 +714,206 @@ public class AVLTree {
 	 */
 	public int delete(int k)
 	{
-		// Searches for a node with a key k. If there is no such node, returns -1.
-		// This part takes O(log n) as explained in the search function
-		if(this.search(k) == null) // K is not in the tree
-			return -1;
-
-		IAVLNode y = this.getRoot();
-		IAVLNode z = y;
-
-		// This is a special case where the tree has only a root and we delete it. This part is O(1).
-		if(n==1 &&this.getRoot().getKey()==k) {
-			this.root=null;
-			this.min = null;
-			this.max = null;
-			this.n=0;
-			return 0;
-		}
-
-		// This part is the search for the node with key k. If we are here, there exists such node.
+		// This part is the search for the node with key k. If there is no such node, returns -1.
 		// This part takes up to O(log n) time complexity as we might pass through each level of the tree.
-		while (y.isRealNode() && y.getKey() != k) { // Looking for where we want to delete
-			z = y;//keep a pointer to previous y
-
+		IAVLNode y = this.root;
+		while (y != null && y.isRealNode() && y.getKey() != k) { // Looking for what we want to delete
 			if (y.getKey()>k)//go to left sub-tree
 				y = y.getLeft();
 			else {//go to right sub-tree
 				y = y.getRight();
 			}
-		} //After this part, z is the parent of y.
-
-		// Maybe we need to change with successor..
+		}
+		if (y == null || !y.isRealNode()) // K is not in the tree
+			return -1;
 
-		// If y(the node we want to delete) has 2 kids we need to swap with successor. WC is O(log n).
-		if(y.getRight().isRealNode() && y.getLeft().isRealNode()) { 
-			IAVLNode tmp = y.getRight();
-			while(tmp.getLeft().isRealNode())
-				tmp = tmp.getLeft();
-
-			// tmp is the successor, tmp is leaf or unary right node!
-			//In order to prevent pointer problems we make new node copy of tmp.
-			IAVLNode replace;
-			if (tmp.getKey()==y.getRight().getKey()) {//in case that tmp(successor) is the right child of y(the node we delete)
-				replace = new AVLNode ((AVLNode)tmp.getRight(), (AVLNode)y.getLeft() ,(AVLNode)y.getParent(), tmp.getKey(), tmp.getValue());
-				replace.setHeight(y.getHeight());//maintain the rank of the deleted node
-				// Size???
-				replace.setSize(y.getSize()-1);
-				y.getLeft().setParent(replace);
-				tmp.getRight().setParent(replace);
-				if(y.getParent() == null) { // y is the root
-					this.root = replace;
-				}
-				else { // y is not the root
-					if(y == y.getParent().getLeft()) // if y is the left kid of his parent
-						y.getParent().setLeft(replace);
-					if(y == y.getParent().getRight()) // if y is the right kid of his parent
-						y.getParent().setRight(replace);
-				}
+		// If y is the minimum (maximum), its successor (predecessor) is the new one. The nodes are not copied by
+		// the deletion, so the pointers stay valid. This is O(1) as the minimum has no left kid (its successor is
+		// its right kid, which is a leaf, or its parent) and the maximum symmetrically.
+		if(y == this.min)
+			this.min = this.successor(y);
+		if(y == this.max)
+			this.max = this.predecessor(y);
 
-				this.n = this.n - 1;
-				if(replace.getParent() != null) // If we delete root no need to change sizes...
-					this.demoteSize(replace.getParent());
+		IAVLNode z; // z is the parent of the node that is removed physically, like in the powerpoint. Rebalancing starts from it.
 
-				int finalresult = rebalancedelete(replace, 0);
-				this.updateMax();
-				this.updateMin();
-				return finalresult;
+		// If y(the node we want to delete) has 2 kids we need to swap with successor. WC is O(log n).
+		if(y.getRight().isRealNode() && y.getLeft().isRealNode()) {
+			IAVLNode succ = y.getRight();
+			while(succ.getLeft().isRealNode())
+				succ = succ.getLeft();
+
+			// succ is the successor, succ is leaf or unary right node!
+			if (succ.getParent() == y) { // the successor is the right child of y - it keeps its right sub-tree
+				z = succ;
 			}
-			else { // Successor is not right kid, but somewhere left
-				replace = new AVLNode((AVLNode)y.getRight(), (AVLNode)y.getLeft() ,(AVLNode)y.getParent(), tmp.getKey(), tmp.getValue());
-				replace.setHeight(y.getHeight());
-				replace.setSize(y.getSize());
-				// HERE WE CHANGE THE POINTERS TO THE TMP/REPLACE NODE!
-				y.getLeft().setParent(replace);
-				y.getRight().setParent(replace);
-				// NOW WE CHANGED TMP WITH Y
-				// WE NEED TO DELETE TMP NOW!!!
-				IAVLNode tmpParent = tmp.getParent();
-				if(tmp.getRight().isRealNode()) { // tmp is Unary
-					tmp.getParent().setLeft(tmp.getRight());
-					tmp.getRight().setParent(tmpParent);
-					tmp.setRight(null);
-
-				}
-				else { // tmp is leaf
-					tmp.getParent().setLeft(new AVLNode());
-					tmp.setParent(null);
-				}
-				if(y.getParent() == null) { // y is the root
-					this.root = replace;
-				}
-				else { // y is not the root
-					if(y == y.getParent().getLeft()) // if y is the left kid of his parent
-						y.getParent().setLeft(replace);
-					if(y == y.getParent().getRight()) // if y is the right kid of his parent
-						y.getParent().setRight(replace);
-				}
-
-				this.n = this.n - 1;
-				this.demoteSize(tmpParent);
-				int finalresult = rebalancedelete(tmpParent, 0);
-				this.updateMin();
-				this.updateMax();
-				return finalresult;
-
-			}		
+			else { // Successor is not right kid, but somewhere left. First we unlink it from its place.
+				z = succ.getParent();
+				z.setLeft(succ.getRight());
+				succ.getRight().setParent(z);
+				succ.setRight(y.getRight());
+				y.getRight().setParent(succ);
+			}
+			// Now succ takes the place of y: its left sub-tree, rank, size and parent
+			succ.setLeft(y.getLeft());
+			y.getLeft().setParent(succ);
+			succ.setHeight(y.getHeight());
+			succ.setSize(y.getSize());
+			this.replaceChild(y, succ);
 		}
 		else { // y is unary or leaf himself. no need to change with successor
-			//WE NEED TO DELETE Y NOW!
-			IAVLNode yParent = y.getParent();
-
-			//The case when the deleted node y is a right-unary node
-			if(y.getRight().isRealNode()) {
-
-				if(y == this.root) { // Special case we delete the root
-					this.root = y.getRight();
-					y.getRight().setParent(null);
-					y.setRight(null);
-					this.n = this.n-1;
-					int finalresult = rebalancedelete(this.root, 0); // Not to send a null, the father of y..
-					this.updateMin();
-					this.updateMax();
-					return finalresult; 
-				}
-				else { // Normal case we delete someone unary not root
-					if(y == y.getParent().getLeft()) // if y is the left kid of his parent
-						y.getParent().setLeft(y.getRight());
-					if(y == y.getParent().getRight()) // if y is the right kid of his parent
-						y.getParent().setRight(y.getRight());
-					y.getRight().setParent(yParent);
-					y.setRight(null);
-				}
+			IAVLNode child = y.getLeft().isRealNode() ? y.getLeft() : y.getRight();
+			z = y.getParent();
+			this.replaceChild(y, child);
+		}
+		// y is out of the tree now
+		y.setParent(null);
+		y.setLeft(VIRTUAL);
+		y.setRight(VIRTUAL);
+		this.n = this.n - 1;
+		this.modCount++;
+		this.finger = (AVLNode) z; // the parent of the removed node is where the next insert starts (the root if z is null)
+
+		if(z == null) // We deleted the root which had at most one kid - the kid is the new root and it is balanced
+			return 0;
 
-			} // The case when the delted node y is a left-unary node
-			else if(y.getLeft().isRealNode()) {
-				if (y==this.root) {
-					this.root = y.getLeft();
-					y.getLeft().setParent(null);
-					y.setRight(null);
-					this.n = this.n-1;
-					int finalresult = rebalancedelete(this.root, 0); // Not to send a null, the father of y..
-					this.updateMin();
-					this.updateMax();
-					return finalresult; 
-				}
-				else {// Normal case we delete someone unary not root
-					if(y == y.getParent().getLeft()) // if y is the left kid of his parent
-						y.getParent().setLeft(y.getLeft());
-					if(y == y.getParent().getRight()) // if y is the right kid of his parent
-						y.getParent().setRight(y.getLeft());
-					y.getLeft().setParent(yParent);
-					y.setLeft(null);
-				}
-			}
-			else { // The case where the deleted node y is a leaf
-				if(y == y.getParent().getLeft()) {// if y is the left kid of his parent
-					y.getParent().setLeft(new AVLNode());
-				}
-				if(y == y.getParent().getRight()) {// if y is the right kid of his parent
-					y.getParent().setRight(new AVLNode());
-				}
-			}
-			if(yParent != null) //if y was a root and we deleted
-				this.demoteSize(yParent);
-			this.n = this.n - 1;
-			int[] diff = RankDifference(z);
-			int []difference2_1 = {2,1};
-			int []difference1_2 = {1,2};
-
-			if(Arrays.equals(diff,difference1_2) || Arrays.equals(diff,difference2_1)) { // Left Case of powerpoint p36 and 37
-				this.updateMin();
-				this.updateMax();	
-				return 0;
-			}
-			int finalresult = rebalancedelete(z, 0);
-			this.updateMin();
-			this.updateMax();
-			return finalresult;
-		}
+		this.demoteSize(z);
+		int finalresult = rebalancedelete(z, 0);
+		return finalresult;
+	}
 
+	/*
+	 * This function puts the node x in the place of the node y: x becomes the child of y's parent (or the root).
+	 * x may be a virtual node, then y's parent loses a child (or the tree becomes empty).
+	 * Time Complexity is O(1).
+	 */
+	private void replaceChild(IAVLNode y, IAVLNode x) {
+		IAVLNode parent = y.getParent();
+		x.setParent(parent);
+		if(parent == null) // y is the root
+			this.root = x.isRealNode() ? x : null;
+		else if(y == parent.getLeft()) // if y is the left kid of his parent
+			parent.setLeft(x);
+		else // if y is the right kid of his parent
+			parent.setRight(x);
 	}
 
 	/*
-	 * This is the rebalancing function after a deletion from the tree. This function is recursive.
+	 * This is the rebalancing function after a deletion from the tree. This function is a loop that moves z up the tree.
 	 * This function deals with ALL cases that were taught in class and that are in the power-point.
 	 * The returned value is the number of rebalancing operations that were needed:
 	 * The operations include promotes, demotes, left-rotates, right-rotates, and double-rotates(which are counter as 2).
 	 * The complexity is O(log n) as the rebalancing might be need at each and every level of the tree.
 	 * The time of each rebalance on a specific level is O(1) as a finite number of operations is needed.
 	 * Therefore the total time complexity at the worst case might the height of the tree - O(log n)
+	 * The rank differences are kept in local ints, so rebalancing allocates no memory at all.
 	 */
 	public int rebalancedelete(IAVLNode z, int counter) {
 		//z is the parent of deleted item like in the powerpoint
-		// These arrays are the way we check the current's node rank differences. 
-		int []difference1_1 = {1,1};
-		int []difference0_1 = {0,1};
-		int []difference1_0 = {1,0};
-		int []difference0_2 = {0,2};
-		int []difference2_0 = {2,0};
-		int []difference2_1 = {2,1};
-		int []difference1_2 = {1,2};
-
-		int []difference2_2 = {2,2};
-		int []difference3_1 = {3,1};
-		int []difference1_3 = {1,3};
-
-		int[] diff = RankDifference(z);
-
-		// Deleting a leaf case
-		//Rank difference of 2,2 - problem is moved up the tree
-		if(Arrays.equals(diff,difference2_2 )) { //Powerpoint page 36 middle and page 37 middle
-			z.setHeight(z.getHeight()-1);
-			counter = counter +1;
-			if(z == this.root)
-				return counter;
-			return rebalancedelete(z.getParent(), counter);
-		}
-		//Rank Difference of 3,1 - some cases may occur
-		if(Arrays.equals(diff, difference3_1)) { //Like in the power-point
-			// y is the right kid of z
-			IAVLNode y = z.getRight();
-			int[] diffY = RankDifference(y);
-			//Rank difference of right child is 1,1 - Problem is fixed here and no need to move up-wards the tree
-			if(Arrays.equals(diffY, difference1_1)) { // Terminating case of child is 1,1. THIS IS CASE 2 of page 40 pp
-				LeftRotate(z);
-				z.setHeight(z.getHeight() -1);
-				y.setHeight(y.getHeight() + 1);
-				counter += 3;
-				return counter;
-			}
-			//Rank difference of right child is 2,1 - Problem is rolled upwards the tree
-			if(Arrays.equals(diffY, difference2_1)) { // Case 3 page 41
-				LeftRotate(z);
-				z.setHeight(z.getHeight() - 2);
-				counter = counter + 3;
-				if(z.getParent() == this.root)
+		while (true) {
+			int leftDiff = z.getHeight() - z.getLeft().getHeight();
+			int rightDiff = z.getHeight() - z.getRight().getHeight();
+
+			// Deleting a leaf case
+			//Rank difference of 2,2 - problem is moved up the tree
+			if(leftDiff == 2 && rightDiff == 2) { //Powerpoint page 36 middle and page 37 middle
+				z.setHeight(z.getHeight()-1);
+				counter = counter +1;
+				countRanks(0, 1);
+				if(z == this.root)
 					return counter;
-				return rebalancedelete(z.getParent().getParent(), counter); //z.parent!=root->z.parent.parent!=null
+				z = z.getParent();
+				continue;
 			}
-			//Rank difference of right child is 1,2 - Problem is rolled upwards the tree
-			if(Arrays.equals(diffY, difference1_2)) { // Case 4 page 42
-				RightRotate(y);
-				LeftRotate(z);
-
-				z.setHeight(z.getHeight() - 2);
-				y.setHeight(y.getHeight() - 1);
-				y.getParent().setHeight(y.getParent().getHeight() + 1);
-				counter += 6;
-				if(z.getParent() == this.root)
+			//Rank Difference of 3,1 - some cases may occur
+			if(leftDiff == 3 && rightDiff == 1) { //Like in the power-point
+				// y is the right kid of z
+				IAVLNode y = z.getRight();
+				int yLeftDiff = y.getHeight() - y.getLeft().getHeight();
+				int yRightDiff = y.getHeight() - y.getRight().getHeight();
+				//Rank difference of right child is 1,1 - Problem is fixed here and no need to move up-wards the tree
+				if(yLeftDiff == 1 && yRightDiff == 1) { // Terminating case of child is 1,1. THIS IS CASE 2 of page 40 pp
+					LeftRotate(z);
+					z.setHeight(z.getHeight() -1);
+					y.setHeight(y.getHeight() + 1);
+					counter += 3;
+					countRanks(1, 1);
 					return counter;
-				return rebalancedelete(z.getParent().getParent(),counter);
-			}
+				}
+				//Rank difference of right child is 2,1 - Problem is rolled upwards the tree
+				if(yLeftDiff == 2 && yRightDiff == 1) { // Case 3 page 41
+					LeftRotate(z);
+					z.setHeight(z.getHeight() - 2);
+					counter = counter + 3;
+					countRanks(0, 2);
+					if(z.getParent() == this.root)
+						return counter;
+					z = z.getParent().getParent(); //z.parent!=root->z.parent.parent!=null
+					continue;
+				}
+				//Rank difference of right child is 1,2 - Problem is rolled upwards the tree
+				if(yLeftDiff == 1 && yRightDiff == 2) { // Case 4 page 42
+					RightRotate(y);
+					LeftRotate(z);
+
+					z.setHeight(z.getHeight() - 2);
+					y.setHeight(y.getHeight() - 1);
+					y.getParent().setHeight(y.getParent().getHeight() + 1);
+					counter += 6;
+					countRanks(1, 3);
+					if(z.getParent() == this.root)
+						return counter;
+					z = z.getParent().getParent();
+					continue;
+				}
 
-		}
-		//The symmetric case - Rank difference of current node is 1,3 - some different cases may occur
-		if(Arrays.equals(diff, difference1_3)) { // The symmetric case of the powerpoint
-			// y is the left kid of z
-			IAVLNode y = z.getLeft();
-			int[] diffY = RankDifference(y);
-			//Rank difference of left child is 1,1 - rebalancing is fixed here. no need for additional rebalancing.
-			if(Arrays.equals(diffY, difference1_1)) { // Symmetric case of case 2 page 40
-				RightRotate(z);
-				z.setHeight(z.getHeight() -1);
-				y.setHeight(y.getHeight() + 1);
-				counter += 3;
-				return counter;
-			}
-			//Rank difference of left kid is 1,2 - Some rebalancing is done and then the problem is moved up-wards the tree.
-			if(Arrays.equals(diffY, difference1_2)) { //Symmetric case 3 page 41
-				RightRotate(z);
-				z.setHeight(z.getHeight() - 2);
-				counter = counter + 3;
-				if(z.getParent() == this.root)
-					return counter;
-				return rebalancedelete(z.getParent().getParent(),counter);
 			}
-			//Rank difference of left kid is 2,1 - Some rebalancing is done and then the problem is moved up-wards the tree.
-			if(Arrays.equals(diffY, difference2_1)) { //Symmetric case 4 page 42
-				LeftRotate(y);
-				RightRotate(z);
-
-				z.setHeight(z.getHeight() - 2);
-				y.setHeight(y.getHeight() - 1);
-				y.getParent().setHeight(y.getParent().getHeight() + 1);
-				counter += 6; //Total of 6 operations were needed
-				if(z.getParent() == this.root)
+			//The symmetric case - Rank difference of current node is 1,3 - some different cases may occur
+			if(leftDiff == 1 && rightDiff == 3) { // The symmetric case of the powerpoint
+				// y is the left kid of z
+				IAVLNode y = z.getLeft();
+				int yLeftDiff = y.getHeight() - y.getLeft().getHeight();
+				int yRightDiff = y.getHeight() - y.getRight().getHeight();
+				//Rank difference of left child is 1,1 - rebalancing is fixed here. no need for additional rebalancing.
+				if(yLeftDiff == 1 && yRightDiff == 1) { // Symmetric case of case 2 page 40
+					RightRotate(z);
+					z.setHeight(z.getHeight() -1);
+					y.setHeight(y.getHeight() + 1);
+					counter += 3;
+					countRanks(1, 1);
 					return counter;
-				return rebalancedelete(z.getParent().getParent(),counter);
+				}
+				//Rank difference of left kid is 1,2 - Some rebalancing is done and then the problem is moved up-wards the tree.
+				if(yLeftDiff == 1 && yRightDiff == 2) { //Symmetric case 3 page 41
+					RightRotate(z);
+					z.setHeight(z.getHeight() - 2);
+					counter = counter + 3;
+					countRanks(0, 2);
+					if(z.getParent() == this.root)
+						return counter;
+					z = z.getParent().getParent();
+					continue;
+				}
+				//Rank difference of left kid is 2,1 - Some rebalancing is done and then the problem is moved up-wards the tree.
+				if(yLeftDiff == 2 && yRightDiff == 1) { //Symmetric case 4 page 42
+					LeftRotate(y);
+					RightRotate(z);
+
+					z.setHeight(z.getHeight() - 2);
+					y.setHeight(y.getHeight() - 1);
+					y.getParent().setHeight(y.getParent().getHeight() + 1);
+					counter += 6; //Total of 6 operations were needed
+					countRanks(1, 3);
+					if(z.getParent() == this.root)
+						return counter;
+					z = z.getParent().getParent();
+					continue;
+				}
 
 			}
 
+			return counter;
 		}
-
-		return counter;
 	}
 
 
@@ -768,6 +955,34 @@ public class AVLTree {
 		return this.max.getValue();
 	}
 
+	/**
+	 * public int minKey()
+	 *
+	 * Returns the smallest key in the tree,
+	 * or -1 (the key of a virtual node) if the tree is empty
+	 */
+
+	//Time Complexity is O(1) as the minimum node is maintained by all operations.
+	public int minKey() {
+		if(this.min == null) //Empty tree
+			return -1;
+		return this.min.getKey();
+	}
+
+	/**
+	 * public int maxKey()
+	 *
+	 * Returns the largest key in the tree,
+	 * or -1 (the key of a virtual node) if the tree is empty
+	 */
+
+	//Time Complexity is O(1) as the maximum node is maintained by all operations.
+	public int maxKey() {
+		if(this.max == null) //Empty tree
+			return -1;
+		return this.max.getKey();
+	}
+
 	/**
 	 * public int[] keysToArray()
 	 *
@@ -776,41 +991,62 @@ public class AVLTree {
 	 */
 
 	/*
-	 * This function returns a sorted array of all keys in the tree. This function calls a recursive function that does all work.
-	 * The recursive function follows an in-order traversal of the tree.
-	 * Time Complexity is O(n) as it is needed to pass through each and every node of the tree.
-	 * At each node through out the traversal the operation take O(1) as the only thing needed is adding the key to the array.
-	 * Therefore time complexity is like the number of nodes in the tree - O(n) total time complexity.
+	 * This function returns a sorted array of all keys in the tree, by an in-order walk of the whole tree.
+	 * Time Complexity is O(n) as it is needed to pass through each and every node of the tree,
+	 * and at each node the only thing needed is adding the key to the array.
 	 */
 	public int[] keysToArray(){
 		int[] arr = new int[this.n];
 		if(this.empty())
 			return arr; // n is the number of items
 
-		keysToArray(this.root, arr, 0);
+		inOrder(this.root, arr, null, 0);
 		return arr;
 	}
 	/*
-	 * This is the recursive function that actually builds a sorted array of all keys in the tree.
-	 * The function function receives a node, the array built until the point, and then index where to add the next key.
-	 * The function returns the index so the next calls will add the keys to the right position in the array.
-	 * Total complexity is O(n) as it is needed to visit each and every node of the array.
+	 * This function adds the keys of the sub-tree of node to the array from the given index, in order,
+	 * and returns the index after the last one, so the next calls will add the keys to the right position in the array.
+	 * Total complexity is O(size of the sub-tree).
 	 */
 	public int keysToArray(IAVLNode node, int[] arr, int index) {
-		if(!node.isRealNode())
-			return index;
-		if(node.getHeight() == 0) {
-			arr[index] = node.getKey();
-			index++;
+		return inOrder(node, arr, null, index);
+	}
+
+	/*
+	 * The in-order walk of keysToArray and infoToArray: it adds the keys of the sub-tree of node to keys and its info values
+	 * to infos (each of them if it is not null) from the given index, and returns the index after the last one.
+	 * There is no recursion - the nodes whose left sub-trees are being walked are kept on an array, which has room for
+	 * the height of an AVL tree. Following the parent pointers instead (like successor) reads more nodes and was about
+	 * twice as slow on large random trees, as every climb is another cache miss.
+	 * Time complexity is O(size of the sub-tree), and O(log n) extra memory.
+	 */
+	private static int inOrder(IAVLNode start, int[] keys, String[] infos, int index) {
+		AVLNode node = (AVLNode) start;
+		if(node.rank == -1)
 			return index;
+		AVLNode[] stack = new AVLNode[node.rank + 1];
+		int top = 0;
+		while(true) {
+			for(AVLNode left = node.left; left.rank != -1; left = node.left) {
+				stack[top++] = node;
+				node = left;
+			}
+			while(true) {
+				if(keys != null)
+					keys[index] = node.key;
+				if(infos != null)
+					infos[index] = node.info;
+				index++;
+				AVLNode right = node.right;
+				if(right.rank != -1) {
+					node = right;
+					break;
+				}
+				if(top == 0)
+					return index;
+				node = stack[--top];
+			}
 		}
-
-		index = keysToArray(node.getLeft(), arr,index);
-		arr[index] = node.getKey();
-		index ++;
-		index = keysToArray(node.getRight(), arr,index);
-
-		return index;
 	}
 
 	/**
@@ -822,12 +1058,8 @@ public class AVLTree {
 	 */
 
 	/*
-	 * This function returns a sorted array of all info values in the tree. This function calls a recursive function that does all work.
-	 * The recursive function follows an in-order traversal of the tree.
-	 * Time Complexity is O(n) as it is needed to pass through each and every node of the tree.
-	 * At each node through out the traversal the operation take O(1) as the only thing needed is adding the info to the array.
-	 * Therefore time complexity is like the number of nodes in the tree - O(n) total time complexity.
-	 * The returned array is an array of all info-values that are sorted actually by the keys.
+	 * This function returns an array of all info values in the tree, sorted by the keys.
+	 * It is the same in-order walk as keysToArray - O(n) time complexity.
 	 */
 	public String[] infoToArray()
 	{
@@ -835,33 +1067,418 @@ public class AVLTree {
 		if(this.empty())
 			return arr; // n is the number of items
 
-		infoToArray(this.root, arr, 0);
+		inOrder(this.root, null, arr, 0);
 		return arr;
 	}
 	
 	/*
-	 * This is the recursive function that actually builds a sorted array of all value of nodes in the tree.
-	 * The function function receives a node, the array built until the point, and then index where to add the next key.
-	 * After each insertion into the array, the index is incremented so the next insertion to the array will be in the next position.
-	 * The function returns the index so the next calls will add the keys to the right position in the array.
-	 * Total complexity is O(n) as it is needed to visit each and every node of the array.
-	 * The returned array is an array of all info-values that are sorted actually by the keys.
+	 * This function adds the info values of the sub-tree of node to the array from the given index, sorted by the keys,
+	 * and returns the index after the last one - the same walk as keysToArray(node, arr, index), O(size of the sub-tree).
 	 */
 	public int infoToArray(IAVLNode node, String[] arr, int index) {
-		if(!node.isRealNode())
-			return index;
-		if(node.getHeight() == 0) {
-			arr[index] = node.getValue();
-			index++;
-			return index;
+		return inOrder(node, null, arr, index);
+	}
+
+	/**
+	 * public int[] parallelKeysToArray()
+	 *
+	 * Returns the same array as keysToArray(), filled by the threads of the common ForkJoin pool.
+	 * The tree must not be changed until it returns.
+	 */
+	public int[] parallelKeysToArray() {
+		return parallelKeysToArray(PARALLEL_CUTOFF);
+	}
+
+	/**
+	 * public int[] parallelKeysToArray(int cutoff)
+	 *
+	 * Like parallelKeysToArray(), where the sub-trees of at most cutoff items are filled without forking.
+	 */
+	public int[] parallelKeysToArray(int cutoff) {
+		int[] arr = new int[this.n];
+		fillArray(arr, null, cutoff);
+		return arr;
+	}
+
+	/**
+	 * public String[] parallelInfoToArray()
+	 *
+	 * Returns the same array as infoToArray(), filled by the threads of the common ForkJoin pool.
+	 * The tree must not be changed until it returns.
+	 */
+	public String[] parallelInfoToArray() {
+		return parallelInfoToArray(PARALLEL_CUTOFF);
+	}
+
+	/**
+	 * public String[] parallelInfoToArray(int cutoff)
+	 *
+	 * Like parallelInfoToArray(), where the sub-trees of at most cutoff items are filled without forking.
+	 */
+	public String[] parallelInfoToArray(int cutoff) {
+		String[] arr = new String[this.n];
+		fillArray(null, arr, cutoff);
+		return arr;
+	}
+
+	/*
+	 * The size of the left sub-tree of a node is the number of keys before it in the sub-tree,
+	 * so the slice of the array of every sub-tree is known without walking it: the node goes to index + left size,
+	 * the left sub-tree to the slice before it and the right sub-tree to the slice after it.
+	 * Each task writes its node, forks the right sub-tree and fills the left one itself, down to sub-trees of at most cutoff items
+	 * that are filled by the sequential walk, like CombineTask does for the set operations. The work is O(n) and the span is O(log n + cutoff).
+	 */
+	private void fillArray(int[] keys, String[] infos, int cutoff) {
+		if(this.root == null)
+			return;
+		AVLNode top = (AVLNode) this.root;
+		if(top.size > cutoff)
+			ForkJoinPool.commonPool().invoke(new FillTask(top, keys, infos, 0, Math.max(cutoff, 1)));
+		else
+			inOrder(top, keys, infos, 0);
+	}
+
+	//Fills the slice of the arrays from index with the sub-tree of node, in a ForkJoin worker - see fillArray
+	private static final class FillTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		final AVLNode node;
+		final int[] keys;
+		final String[] infos;
+		final int index;
+		final int cutoff;
+
+		FillTask(AVLNode node, int[] keys, String[] infos, int index, int cutoff) {
+			this.node = node;
+			this.keys = keys;
+			this.infos = infos;
+			this.index = index;
+			this.cutoff = cutoff;
+		}
+
+		protected void compute() {
+			AVLNode node = this.node;
+			if(node.size <= this.cutoff) {
+				inOrder(node, this.keys, this.infos, this.index);
+				return;
+			}
+			int at = this.index + node.left.size;
+			if(this.keys != null)
+				this.keys[at] = node.key;
+			if(this.infos != null)
+				this.infos[at] = node.info;
+			FillTask task = new FillTask(node.right, this.keys, this.infos, at + 1, this.cutoff);
+			task.fork();
+			new FillTask(node.left, this.keys, this.infos, this.index, this.cutoff).compute();
+			task.join();
 		}
+	}
+
+	/**
+	 * public IntStream keys()
+	 *
+	 * Returns a sequential stream of the keys of the tree in ascending order. keys().parallel() splits the tree evenly by rank,
+	 * and every part knows its exact size. A stream that finds the tree changed while it runs throws ConcurrentModificationException.
+	 */
+	public IntStream keys() {
+		return StreamSupport.intStream(new KeySpliterator(0, size()), false);
+	}
 
-		index = infoToArray(node.getLeft(), arr,index);
-		arr[index] = node.getValue();
-		index ++;
-		index = infoToArray(node.getRight(), arr,index);
+	/*
+	 * The spliterator of keys(): the keys of ranks [from, to) of the tree.
+	 * It is placed on its first key by a descent like select, which keeps the nodes where it went left on an array,
+	 * and then walks in order as inOrder does - O(log n) to start and O(1) amortized per key.
+	 * trySplit halves the ranks in O(1), so the parts are even and their sizes exact, and a part that was split is placed again.
+	 */
+	private final class KeySpliterator implements Spliterator.OfInt {
+		private int from;              //The rank of the next key
+		private final int to;          //The rank after the last key
+		private AVLNode current;       //The node of rank from, or null if the spliterator was not placed yet
+		private AVLNode[] stack;       //The nodes above current whose keys come after it, in the order they are reached
+		private int top;
+		private final int expectedModCount = AVLTree.this.modCount;
+
+		KeySpliterator(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		//Goes down to the node of rank from - O(log n)
+		private void place() {
+			AVLNode node = (AVLNode) AVLTree.this.root;
+			this.stack = new AVLNode[node.rank + 1];
+			this.top = 0;
+			int i = this.from;
+			while(true) {
+				int leftSize = node.left.size;
+				if(i < leftSize) {
+					this.stack[this.top++] = node;
+					node = node.left;
+				}
+				else if(i > leftSize) {
+					i -= leftSize + 1;
+					node = node.right;
+				}
+				else
+					break;
+			}
+			this.current = node;
+		}
+
+		//Returns the key of current and moves to the next node - O(1) amortized
+		private int advance() {
+			AVLNode node = this.current;
+			int key = node.key;
+			this.from++;
+			if(this.from < this.to) {
+				AVLNode next = node.right;
+				if(next.rank != -1) {
+					while(next.left.rank != -1) {
+						this.stack[this.top++] = next;
+						next = next.left;
+					}
+					this.current = next;
+				}
+				else
+					this.current = this.stack[--this.top];
+			}
+			return key;
+		}
 
-		return index;
+		public boolean tryAdvance(IntConsumer action) {
+			if(this.from >= this.to)
+				return false;
+			if(AVLTree.this.modCount != this.expectedModCount)
+				throw new ConcurrentModificationException();
+			if(this.current == null)
+				place();
+			action.accept(advance());
+			return true;
+		}
+
+		public void forEachRemaining(IntConsumer action) {
+			if(this.from >= this.to)
+				return;
+			if(AVLTree.this.modCount != this.expectedModCount)
+				throw new ConcurrentModificationException();
+			if(this.current == null)
+				place();
+			while(this.from < this.to)
+				action.accept(advance());
+			if(AVLTree.this.modCount != this.expectedModCount)
+				throw new ConcurrentModificationException();
+		}
+
+		public Spliterator.OfInt trySplit() {
+			int mid = (this.from + this.to) >>> 1;
+			if(mid == this.from)
+				return null;
+			KeySpliterator prefix = new KeySpliterator(this.from, mid);
+			this.from = mid;
+			this.current = null;
+			this.stack = null;
+			return prefix;
+		}
+
+		public long estimateSize() {
+			return this.to - this.from;
+		}
+
+		public int characteristics() {
+			return ORDERED | SORTED | DISTINCT | SIZED | SUBSIZED | NONNULL;
+		}
+
+		public Comparator<? super Integer> getComparator() {
+			return null; //The keys are in their natural order
+		}
+	}
+
+	/**
+	 * public RangeIterator rangeIterator(int lo, int hi)
+	 *
+	 * Returns an iterator over the keys k of the tree with lo <= k <= hi, in increasing order
+	 * (empty if lo > hi). The info of every key is returned by info() of the iterator.
+	 * The iterator throws ConcurrentModificationException if the tree was inserted to, deleted from, split or joined since it was made.
+	 */
+	//Finding the first key is O(log n), and every nextInt is O(1) amortized (O(log n) at the worst case). Nothing is copied.
+	public RangeIterator rangeIterator(int lo, int hi) {
+		return new RangeIterator(lo > hi ? null : ceilingEntry(lo), hi, false);
+	}
+
+	/**
+	 * public RangeIterator tailIterator(int from)
+	 *
+	 * Returns an iterator over the keys k of the tree with k >= from, in increasing order, like rangeIterator.
+	 */
+	public RangeIterator tailIterator(int from) {
+		return new RangeIterator(ceilingEntry(from), Integer.MAX_VALUE, false);
+	}
+
+	/**
+	 * public RangeIterator descendingRangeIterator(int lo, int hi)
+	 *
+	 * Returns an iterator over the keys k of the tree with lo <= k <= hi, in decreasing order (from hi down to lo), like rangeIterator.
+	 */
+	public RangeIterator descendingRangeIterator(int lo, int hi) {
+		return new RangeIterator(lo > hi ? null : floorEntry(hi), lo, true);
+	}
+
+	/**
+	 * public RangeIterator descendingTailIterator(int from)
+	 *
+	 * Returns an iterator over the keys k of the tree with k <= from, in decreasing order (from from down to the minimum), like rangeIterator.
+	 */
+	public RangeIterator descendingTailIterator(int from) {
+		return new RangeIterator(floorEntry(from), Integer.MIN_VALUE, true);
+	}
+
+	/**
+	 * public int floorKey(int k)
+	 *
+	 * Returns the largest key in the tree that is smaller than or equal to k,
+	 * or -1 (the key of a virtual node) if there is none. floorEntry tells a missing key from the key -1.
+	 */
+	//A single descent with no allocation - O(log n), and so are ceilingKey, lowerKey and higherKey.
+	public int floorKey(int k) {
+		IAVLNode node = floorEntry(k);
+		return node == null ? -1 : node.getKey();
+	}
+
+	/**
+	 * public int ceilingKey(int k)
+	 *
+	 * Returns the smallest key in the tree that is larger than or equal to k, or -1 if there is none.
+	 */
+	public int ceilingKey(int k) {
+		IAVLNode node = ceilingEntry(k);
+		return node == null ? -1 : node.getKey();
+	}
+
+	/**
+	 * public int lowerKey(int k)
+	 *
+	 * Returns the largest key in the tree that is smaller than k, or -1 if there is none.
+	 */
+	public int lowerKey(int k) {
+		IAVLNode node = lowerEntry(k);
+		return node == null ? -1 : node.getKey();
+	}
+
+	/**
+	 * public int higherKey(int k)
+	 *
+	 * Returns the smallest key in the tree that is larger than k, or -1 if there is none.
+	 */
+	public int higherKey(int k) {
+		IAVLNode node = higherEntry(k);
+		return node == null ? -1 : node.getKey();
+	}
+
+	/**
+	 * public IAVLNode lowerEntry(int k)
+	 *
+	 * Returns the node of the largest key in the tree that is smaller than k, or null if there is none.
+	 */
+	//The keys are ints, so the largest key < k is the largest key <= k - 1 - O(log n)
+	public IAVLNode lowerEntry(int k) {
+		return k == Integer.MIN_VALUE ? null : floorEntry(k - 1);
+	}
+
+	/**
+	 * public IAVLNode higherEntry(int k)
+	 *
+	 * Returns the node of the smallest key in the tree that is larger than k, or null if there is none.
+	 */
+	//The keys are ints, so the smallest key > k is the smallest key >= k + 1 - O(log n)
+	public IAVLNode higherEntry(int k) {
+		return k == Integer.MAX_VALUE ? null : ceilingEntry(k + 1);
+	}
+
+	/**
+	 * public IAVLNode ceilingEntry(int k)
+	 *
+	 * Returns the node of the smallest key in the tree that is larger than or equal to k, or null if there is none.
+	 */
+	//A single descent: the best node so far is the last one where the descent went left - O(log n)
+	public IAVLNode ceilingEntry(int k) {
+		AVLNode best = null;
+		AVLNode node = this.root == null ? VIRTUAL : (AVLNode) this.root;
+		while(node.rank != -1) {
+			if(node.key >= k) {
+				best = node;
+				node = node.left;
+			}
+			else
+				node = node.right;
+		}
+		return best;
+	}
+
+	/**
+	 * public IAVLNode floorEntry(int k)
+	 *
+	 * Returns the node of the largest key in the tree that is smaller than or equal to k, or null if there is none.
+	 */
+	//The symmetric descent of ceilingEntry - O(log n)
+	public IAVLNode floorEntry(int k) {
+		AVLNode best = null;
+		AVLNode node = this.root == null ? VIRTUAL : (AVLNode) this.root;
+		while(node.rank != -1) {
+			if(node.key <= k) {
+				best = node;
+				node = node.right;
+			}
+			else
+				node = node.left;
+		}
+		return best;
+	}
+
+	/**
+	 * public class RangeIterator
+	 *
+	 * A lazy iterator over a range of keys of the tree, which walks from node to node by the parent pointers
+	 * (successor or predecessor), so it holds nothing but its next node. nextInt returns the next key,
+	 * and info() returns the info of the key that nextInt returned last.
+	 */
+	public final class RangeIterator implements PrimitiveIterator.OfInt {
+		private IAVLNode next;          //The node of the next key, null at the end of the range
+		private final int bound;        //The last key of the range: the largest one, or the smallest one if descending
+		private final boolean descending;
+		private String info;            //The info of the last returned key
+		private final int expectedModCount = AVLTree.this.modCount;
+
+		RangeIterator(IAVLNode first, int bound, boolean descending) {
+			this.bound = bound;
+			this.descending = descending;
+			this.next = first != null && inRange(first) ? first : null;
+		}
+
+		private boolean inRange(IAVLNode node) {
+			return this.descending ? node.getKey() >= this.bound : node.getKey() <= this.bound;
+		}
+
+		public boolean hasNext() {
+			return this.next != null;
+		}
+
+		//Returns the next key of the range - O(1) amortized
+		public int nextInt() {
+			if(AVLTree.this.modCount != this.expectedModCount)
+				throw new ConcurrentModificationException();
+			IAVLNode node = this.next;
+			if(node == null)
+				throw new NoSuchElementException();
+			IAVLNode following = this.descending ? predecessor(node) : successor(node);
+			this.next = following != null && inRange(following) ? following : null;
+			this.info = node.getValue();
+			return node.getKey();
+		}
+
+		//Returns the info of the key that nextInt returned last, or null if it was not called yet - O(1)
+		public String info() {
+			return this.info;
+		}
 	}
 
 	/**
@@ -872,10 +1489,83 @@ public class AVLTree {
 	 * precondition: none
 	 * postcondition: none
 	 */
-	//return the size of the tree in O(1) time.
+	//return the size of the tree in O(1) time, 0 for an empty tree (which has no root).
 	public int size()
 	{
-		return this.root.getSize();
+		return this.root == null ? 0 : this.root.getSize();
+	}
+
+	/**
+	 * public int select(int i)
+	 *
+	 * Returns the i-th smallest key in the tree, counting from 0 (select(0) is minKey()).
+	 * precondition: 0 <= i < size(), otherwise IndexOutOfBoundsException is thrown.
+	 */
+	/*
+	 * The size of the left sub-tree of a node is the number of keys in the sub-tree that are smaller than its key,
+	 * so a single descent finds the i-th key: stop at a node whose left sub-tree has exactly i keys, go left if it has more,
+	 * or go right for the (i - left size - 1)-th key of the right sub-tree otherwise.
+	 * Time Complexity is O(log n).
+	 */
+	public int select(int i) {
+		if(i < 0 || i >= size())
+			throw new IndexOutOfBoundsException("index " + i + " of a tree of size " + size());
+		AVLNode node = (AVLNode) this.root;
+		while(true) {
+			int leftSize = node.left.size;
+			if(i < leftSize)
+				node = node.left;
+			else if(i > leftSize) {
+				i -= leftSize + 1;
+				node = node.right;
+			}
+			else
+				return node.key;
+		}
+	}
+
+	/**
+	 * public int rank(int k)
+	 *
+	 * Returns the number of keys in the tree that are smaller than k:
+	 * the index of k in keysToArray() if k is in the tree, or the index it would have if it were inserted.
+	 */
+	//Time Complexity is O(log n), see countBelow.
+	public int rank(int k) {
+		return countBelow(k, false);
+	}
+
+	/**
+	 * public int countRange(int lo, int hi)
+	 *
+	 * Returns the number of keys k in the tree with lo <= k <= hi, or 0 if lo > hi.
+	 */
+	//Two descents, the keys <= hi minus the keys < lo - O(log n).
+	public int countRange(int lo, int hi) {
+		if(lo > hi)
+			return 0;
+		return countBelow(hi, true) - countBelow(lo, false);
+	}
+
+	/*
+	 * Returns the number of keys smaller than k (or smaller than or equal to k, if inclusive) in a single descent:
+	 * every time the descent goes right, the node and its left sub-tree are all smaller.
+	 * Time Complexity is O(log n).
+	 */
+	private int countBelow(int k, boolean inclusive) {
+		int count = 0;
+		AVLNode node = this.root == null ? VIRTUAL : (AVLNode) this.root;
+		while(node.isRealNode()) {
+			if(k < node.key || (k == node.key && !inclusive))
+				node = node.left;
+			else {
+				count += node.left.size + 1;
+				if(k == node.key)
+					return count;
+				node = node.right;
+			}
+		}
+		return count;
 	}
 
 	/**
@@ -896,121 +1586,108 @@ public class AVLTree {
 	 *
 	 * splits the tree into 2 trees according to the key x. 
 	 * Returns an array [t1, t2] with two AVL trees. keys(t1) < x < keys(t2).
-	 * precondition: search(x) != null
+	 * The item with key x (if there is one) is in neither tree, and this tree is empty afterwards.
 	 * postcondition: none
 	 */   
 	/*
-	 * this is split method. it get as argument an int x which is the key we split the tree according to by the precondition that
-	 * a node with x key is in the tree and returns an array of this 2 trees: the first with keys<x and the second with keys>x.
-	 * first of all we search the node with x key we will mark that node as y- it cost in w.c O(logn).
-	 * afterwards we will initials 2 trees : 
-	 * the first is the tree which is left sub-tree of y we will mark him as low
-	 * the second is the tree which is right sub-tree of y we will mark him as high
-	 * now will follow the algorithm we have seen in class:
-	 * in while loop we check if y is a right son ,if so we will join(by join method) the left sub tree of y.parent with low and save the result as low
-	 * if y is left child ,if so we will join(by join method) the right sub tree of y.parent with high and save the result as high.
-	 * in each iteration we promote y to be y.parent until y==root.
-	 * by the algorithm we saw in the class the w.c time complexity is O(logn).
+	 * this is split method. it get as argument an int x which is the key we split the tree according to,
+	 * and returns an array of this 2 trees: the first with keys<x and the second with keys>x.
+	 * first of all we search the node with x key, or the last node on the search path if there is no such node, we will mark that node as y- it cost in w.c O(logn).
+	 * the left sub-tree of y starts the low tree and its right sub-tree starts the high tree (y itself goes to one of them if its key is not x).
+	 * now will follow the algorithm we have seen in class, on the sub-trees themselves (joinRaw), with no temporary tree or copied node:
+	 * going up from y, if y is a right son we join the left sub tree of y.parent and y.parent with low,
+	 * if y is left child we join the right sub tree of y.parent and y.parent with high.
+	 * the minimum and maximum of both trees are known before splitting (the predecessor and successor of y), so they are set once at the end.
+	 * by the algorithm we saw in the class the w.c time complexity is O(logn), and the only objects that are allocated are the two trees.
 	 */
 	public AVLTree[] split(int x)
 	{
-		
-		//SPECIAL CASE - SPLIT BY ROOT
-		if(this.root.getKey() == x) {
-			AVLTree high = new AVLTree(this.root.getRight());
-			high.updateMax();
-			high.updateMin();
-			
-			AVLTree low = new AVLTree(this.root.getLeft());
-			low.updateMax();
-			low.updateMin();
-			
-			AVLTree[] ret = new AVLTree[2];
-			ret[0] = low;
-			ret[1] = high;
+		AVLTree low = new AVLTree();
+		AVLTree high = new AVLTree();
+		AVLTree[] ret = new AVLTree[2];
+		ret[0] = low;
+		ret[1] = high;
+		if(this.root == null)
 			return ret;
-		}
-		
-		IAVLNode y = this.root;
-		while (y.getKey() != x) { //Looking for the node with key x
-			if (y.getKey()> x)//go to left sub-tree
-				y = y.getLeft();
-			else//go to right sub-tree
-				y = y.getRight();	
-		}
 
-		//Y is the node with key x
-		
-		AVLTree low = new AVLTree(y.getLeft());
-		if (!low.empty()) {
-			low.updateMax();
-			low.updateMin();
-		}
-		
-		AVLTree high = new AVLTree(y.getRight());
-		if (!high.empty()) {
-			high.updateMax();
-			high.updateMin();
-		}
-		IAVLNode prev = y;
-		while(y.getParent() != null) {
-			prev = y;
-			IAVLNode yParent = y.getParent();
-			if(y == y.getParent().getRight()) {		
-				AVLTree LowParent = new AVLTree(yParent.getLeft());
-				IAVLNode tmp = new AVLNode((AVLNode)yParent.getLeft(),(AVLNode)yParent.getRight(),null,yParent.getKey(),yParent.getValue());
-				int res = low.join(tmp, LowParent); //CHANGE AFTER
-				if(res > this.maxJoin) // DELETE AFTER
-					maxJoin = res; // DELETE AFTER
-				this.joinCounter += res; //DELETE AFTER
-				this.counting ++;
-				
+		AVLNode y = (AVLNode) this.root;
+		while(y.key != x) { //Looking for the node with key x
+			AVLNode next = x < y.key ? y.left : y.right;
+			if(!next.isRealNode())
+				break;
+			y = next;
+		}
+		// side < 0: x is smaller than the key of y and y has no left kid, so y goes to high. side > 0 is symmetric.
+		int side = x < y.key ? -1 : x > y.key ? 1 : 0;
+
+		IAVLNode lowMax = side > 0 ? y : this.predecessor(y);
+		IAVLNode highMin = side < 0 ? y : this.successor(y);
+		IAVLNode lowMin = lowMax == null ? null : this.min;
+		IAVLNode highMax = highMin == null ? null : this.max;
+
+		AVLNode p = y.parent;
+		boolean fromRight = p != null && p.right == y;
+		AVLNode lowRoot = y.left;
+		AVLNode highRoot = y.right;
+		lowRoot.setParent(null);
+		highRoot.setParent(null);
+		if(side < 0)
+			highRoot = joinRaw(VIRTUAL, y, highRoot);
+		else if(side > 0)
+			lowRoot = joinRaw(lowRoot, y, VIRTUAL);
+		else { // y is cut from the tree
+			y.left = VIRTUAL;
+			y.right = VIRTUAL;
+			y.parent = null;
+			y.rank = 0;
+			y.size = 1;
+		}
+
+		int pathLength = 0;
+		while(p != null) {
+			pathLength++;
+			AVLNode up = p.parent;
+			boolean upFromRight = up != null && up.right == p;
+			if(fromRight) {
+				AVLNode l = p.left;
+				l.setParent(null);
+				lowRoot = joinRaw(l, p, lowRoot);
 			}
-			if(y == y.getParent().getLeft()) {
-				AVLTree HighParent = new AVLTree(yParent.getRight());
-				IAVLNode tmp = new AVLNode((AVLNode)yParent.getLeft(),(AVLNode)yParent.getRight(),null,yParent.getKey(),yParent.getValue());
-				int res = high.join(tmp, HighParent); //DELETE AFTER
-				if(res > this.maxJoin) //DELETER AFTER
-					maxJoin = res; //DELETE AFTER
-				this.joinCounter += res; //DELETE AFTER
-				this.counting++;
-				
+			else {
+				AVLNode r = p.right;
+				r.setParent(null);
+				highRoot = joinRaw(highRoot, p, r);
 			}
-			y = y.getParent();
-		}
-		// Y is now the root;
-		// This is the LAST JOIN NEEDED
-		if(prev == y.getLeft()) {
-			AVLTree HighParent = new AVLTree(y.getRight());
-			int res = high.join(y, HighParent); //CHANGE AFTER
-			if(res > this.maxJoin) // DELETE AFTER
-				maxJoin = res; // DELETE AFTER
-			this.joinCounter += res; //DELETE AFTER
-			this.counting++;
+			p = up;
+			fromRight = upFromRight;
+		}
+
+		low.setSplitResult(lowRoot, lowMin, lowMax);
+		high.setSplitResult(highRoot, highMin, highMax);
+		if(this.metrics != null) {
+			this.metrics.split(pathLength);
+			low.metrics = this.metrics;
+			high.metrics = this.metrics;
+		}
+		this.root = null;
+		this.n = 0;
+		this.min = null;
+		this.max = null;
+		this.modCount++;
+		this.finger = null;
+		return ret;
+	}
+
+	//Makes the sub-tree top (maybe virtual) one of the trees of split, whose minimum and maximum are known - O(1)
+	private void setSplitResult(AVLNode top, IAVLNode min, IAVLNode max) {
+		if(top.isRealNode()) {
+			this.root = top;
+			this.n = top.size;
+			this.min = min;
+			this.max = max;
 		}
-		
-		if(prev == y.getRight()) {
-			AVLTree LowParent = new AVLTree(y.getLeft());
-			int res = low.join(y, LowParent); //CHANGE AFTER
-			if(res > this.maxJoin) //DELETE AFTER
-				maxJoin = res; //DELETE AFTER
-			this.joinCounter += res; //DELETE AFTER
-			this.counting++;
-		}
-		if(high.getRoot() != null)
-			high.getRoot().setSize(high.getRoot().getLeft().getSize() + high.getRoot().getRight().getSize()+1);
-		if(low.getRoot() != null)
-			low.getRoot().setSize(low.getRoot().getLeft().getSize() + low.getRoot().getRight().getSize() + 1);
-		high.updateMax();
-		high.updateMin();
-		low.updateMax();
-		low.updateMin();
-		AVLTree[] ret = new AVLTree[2];
-		ret[0] = low;
-		ret[1] = high;
-		
-		return ret; 
 	}
+
 	/**
 	 * public join(IAVLNode x, AVLTree t)
 	 *
@@ -1020,340 +1697,399 @@ public class AVLTree {
 	 * postcondition: none
 	 */   
 	/*this is Join method it receives IAVLNode x, AVLTree t and return the rank difference between t1 and this plus 1
-	 * this method send the arguments to one of two functions joinleft or joinright according to keys and rank of the trees
-	 * each method  joinleft and joinright are operate in w.c complexty of O(logn) therefore this method operate in w.c complexty of O(logn)
-	 * we will detail joinleft and joinright afterwards
+	 * the joining itself is done by joinRaw on the two roots, which goes down the spine of the higher tree to the rank of the lower one
+	 * and rebalances from there up, therefore this method operate in w.c complexty of O(|rank difference| + 1) = O(logn)
+	 * the minimum and the maximum of the joined tree are known before joining: the minimum of the lower tree
+	 * and the maximum of the higher tree (x itself if that tree is empty), and n is the size of the new root.
 	 */
 	public int join(IAVLNode x, AVLTree t)
 	{
-		//Special case - both trees are empty
-		
-		if(this.empty() && t.empty()) {
-			this.root = x;
-			this.min = x;
-			this.max = x;
-			this.n = 1;
-			return 1;
-		}
-		
-		if (this.empty()) {
-			int k = t.getRoot().getHeight();
-			t.insert(x.getKey(), x.getValue());
-			this.root = t.root;
-			this.n = t.n; 
-			this.min = t.min;
-			this.max = t.max;
-			return k+2;
-			
-		}
-		if (t.empty()) {
-			int k = this.getRoot().getHeight();
-			this.insert(x.getKey(), x.getValue());
-			return k+2;
-			
-		}
-
-		//The case where the heights are equal. It is needed to connect both trees to the node x as children.
-		//It is needed to check which tree has bigger keys and in the way decide the order of children.
-		if(this.root.getHeight() == t.getRoot().getHeight()) {
-			//Case 3 with equal heights
-
-			if(this.root.getKey() < t.getRoot().getKey()) {	
-				int new_n = this.n + t.n + 1;
-
-				x.setLeft(this.root);
-				this.root.setParent(x);
-
-				x.setRight(t.root);
-				t.root.setParent(x);
-				x.setSize(this.root.getSize() + t.root.getSize() + 1);
-				x.setHeight(this.root.getHeight() + 1);
-				this.root = x;
-				this.n = new_n;
-				this.updateMin();
-				this.updateMax();
-
-				//this.root.setSize(new_n);
-				//this.root.setHeight(this.root.getLeft().getHeight() + 1);
-				return 1;
-			}
+		AVLNode mine = this.root == null ? VIRTUAL : (AVLNode) this.root;
+		AVLNode other = t.root == null ? VIRTUAL : (AVLNode) t.root;
+		int res = Math.abs(mine.rank - other.rank) + 1;
+
+		boolean thisIsLow = this.empty() ? (!t.empty() && t.getRoot().getKey() > x.getKey()) : this.root.getKey() < x.getKey();
+		AVLTree low = thisIsLow ? this : t;
+		AVLTree high = thisIsLow ? t : this;
+		IAVLNode newMin = low.empty() ? x : low.min;
+		IAVLNode newMax = high.empty() ? x : high.max;
+
+		AVLNode top = thisIsLow ? joinRaw(mine, (AVLNode) x, other) : joinRaw(other, (AVLNode) x, mine);
+		this.root = top;
+		this.n = top.size;
+		this.min = newMin;
+		this.max = newMax;
+		this.modCount++;
+		t.modCount++; // the nodes of t are linked into this tree now
+		t.finger = null;
+		return res;
+	}
 
-			//Case 4 with equal heights
-			if(this.root.getKey() > t.getRoot().getKey()) {
-				int new_n = this.n + t.n + 1;
+	/**
+	 * public int insertAll(int[] keys, String[] infos)
+	 *
+	 * inserts the items (keys[i], infos[i]) to the tree, as insert does for every item:
+	 * an item whose key is already in the tree (or earlier in the batch) is not inserted and the info of that key is not changed.
+	 * infos may be null, then all the infos are null. Otherwise it must be as long as keys, or IllegalArgumentException is thrown.
+	 * returns the number of items that were inserted.
+	 */
+	/*
+	 * The batch is sorted and then merged into the tree by divide and conquer: the tree is split by the median key of the batch,
+	 * the two halves of the batch are merged into the two trees, and the trees are joined back with the node of the median.
+	 * An empty tree takes the rest of the batch as a balanced tree built in O(batch).
+	 * For a batch of m keys it costs O(m log(n/m + 1)) instead of the O(m log(n + m)) of m inserts, plus O(m log m) for sorting.
+	 */
+	public int insertAll(int[] keys, String[] infos) {
+		if(infos != null && infos.length != keys.length)
+			throw new IllegalArgumentException(keys.length + " keys but " + infos.length + " infos");
+		long[] order = sortedOrder(keys);
+		int m = order.length;
+		int[] sortedKeys = new int[m];
+		String[] sortedInfos = infos == null ? null : new String[m];
+		for(int i = 0; i < m; i++) {
+			int index = (int) order[i];
+			sortedKeys[i] = keys[index];
+			if(infos != null)
+				sortedInfos[i] = infos[index];
+		}
+		int before = this.root == null ? 0 : this.root.getSize();
+		AVLNode top = unionRaw(this.root == null ? VIRTUAL : (AVLNode) this.root, sortedKeys, sortedInfos, 0, m, new AVLNode[3]);
+		setRootRaw(top);
+		return this.n - before;
+	}
 
-				x.setLeft(t.root);
-				t.root.setParent(x);
+	/**
+	 * public int deleteAll(int[] keys)
+	 *
+	 * deletes the items with the given keys from the tree, the keys that are not in the tree are ignored.
+	 * returns the number of items that were deleted.
+	 */
+	//The same divide and conquer as insertAll, without the nodes of the keys - O(m log(n/m + 1)) plus O(m log m) for sorting.
+	public int deleteAll(int[] keys) {
+		long[] order = sortedOrder(keys);
+		int m = order.length;
+		int[] sortedKeys = new int[m];
+		for(int i = 0; i < m; i++)
+			sortedKeys[i] = keys[(int) order[i]];
+		int before = this.root == null ? 0 : this.root.getSize();
+		AVLNode top = differenceRaw(this.root == null ? VIRTUAL : (AVLNode) this.root, sortedKeys, 0, m, new AVLNode[3]);
+		setRootRaw(top);
+		return before - this.n;
+	}
 
-				x.setRight(this.root);
-				this.root.setParent(x);
+	static final int UNION = 0;
+	static final int INTERSECTION = 1;
+	static final int DIFFERENCE = 2;
+	public static final int PARALLEL_CUTOFF = 1 << 13; //The default number of items below which a set operation does not fork
 
-				x.setSize(this.root.getSize() + t.root.getSize() + 1);
-				x.setHeight(this.root.getHeight() + 1);
+	/**
+	 * public void union(AVLTree t, BinaryOperator<String> merge)
+	 *
+	 * Makes this tree the union of this tree and t. t is empty afterwards.
+	 * For a key in both trees the info is merge(info in this tree, info in t), or the info in this tree if merge is null.
+	 */
+	public void union(AVLTree t, BinaryOperator<String> merge) {
+		combine(UNION, t, merge, PARALLEL_CUTOFF);
+	}
 
-				this.root = x;
-				this.n = new_n;
-				this.updateMin();
-				this.updateMax();
+	/**
+	 * public void union(AVLTree t, BinaryOperator<String> merge, int cutoff)
+	 *
+	 * Like union(t, merge), where the sub-problems of at most cutoff items are solved without forking.
+	 */
+	public void union(AVLTree t, BinaryOperator<String> merge, int cutoff) {
+		combine(UNION, t, merge, cutoff);
+	}
 
-				//this.root.setSize(new_n);
-				//this.root.setHeight(this.root.getLeft().getHeight() + 1);
-				return 1;
-			}
-		}
+	/**
+	 * public void intersection(AVLTree t, BinaryOperator<String> merge)
+	 *
+	 * Makes this tree the intersection of this tree and t. t is empty afterwards.
+	 * The info of a key is merge(info in this tree, info in t), or the info in this tree if merge is null.
+	 */
+	public void intersection(AVLTree t, BinaryOperator<String> merge) {
+		combine(INTERSECTION, t, merge, PARALLEL_CUTOFF);
+	}
 
-		//Case 1: 
-		if(this.root.getKey() > t.root.getKey() && this.getRoot().getHeight() >= t.getRoot().getHeight()) {
-			int val = joinLeft(t, x, this).getJoinedResult();
-			this.updateMin();
-			this.updateMax();
-			return val;
-		}
+	/**
+	 * public void intersection(AVLTree t, BinaryOperator<String> merge, int cutoff)
+	 *
+	 * Like intersection(t, merge), where the sub-problems of at most cutoff items are solved without forking.
+	 */
+	public void intersection(AVLTree t, BinaryOperator<String> merge, int cutoff) {
+		combine(INTERSECTION, t, merge, cutoff);
+	}
 
-		//Case 3:
-		if(this.root.getKey() < t.root.getKey() && this.getRoot().getHeight() <= t.getRoot().getHeight()) {
-			AVLTree tmp = new AVLTree();
-			tmp.n = this.n;
-			tmp.min = this.min;
-			tmp.max = this.max;
-			tmp.root = this.root;
+	/**
+	 * public void difference(AVLTree t)
+	 *
+	 * Removes from this tree the keys of t. t is empty afterwards.
+	 */
+	public void difference(AVLTree t) {
+		combine(DIFFERENCE, t, null, PARALLEL_CUTOFF);
+	}
 
-			this.root = t.root;
-			this.n = t.n;
-			this.min = t.min;
-			this.max = t.max;
+	/**
+	 * public void difference(AVLTree t, int cutoff)
+	 *
+	 * Like difference(t), where the sub-problems of at most cutoff items are solved without forking.
+	 */
+	public void difference(AVLTree t, int cutoff) {
+		combine(DIFFERENCE, t, null, cutoff);
+	}
 
+	/*
+	 * The set operations split t by the key of the root of this tree, solve the two sides recursively
+	 * - the right side as a ForkJoin task while this thread solves the left side -
+	 * and join the results with the root, or concatenate them if the root is not in the result.
+	 * The work is O(m log(n/m + 1)) for trees of sizes m <= n, and the span is O(log^2 n).
+	 * Sub-problems of at most cutoff items run sequentially, as forking a task costs more than solving a small problem.
+	 * Both trees are taken apart for their nodes, so t is empty afterwards.
+	 */
+	private void combine(int op, AVLTree t, BinaryOperator<String> merge, int cutoff) {
+		if(t == this)
+			throw new IllegalArgumentException("a tree cannot be combined with itself");
+		AVLNode a = this.root == null ? VIRTUAL : (AVLNode) this.root;
+		AVLNode b = t.root == null ? VIRTUAL : (AVLNode) t.root;
+		AVLNode top;
+		if(a.size + b.size > cutoff)
+			top = ForkJoinPool.commonPool().invoke(new CombineTask(op, a, b, merge, cutoff));
+		else
+			top = combineRaw(op, a, b, merge, cutoff, new AVLNode[3]);
+		setRootRaw(top);
+		t.root = null;
+		t.n = 0;
+		t.min = null;
+		t.max = null;
+		t.modCount++;
+		t.finger = null;
+	}
 
+	//One sub-problem of a set operation, solved in a ForkJoin worker
+	private final class CombineTask extends RecursiveTask<AVLNode> {
+		private static final long serialVersionUID = 1L;
 
-			int val = joinLeft(tmp, x, this).getJoinedResult();
-			this.updateMin();
-			this.updateMax();
-			return val;
-		}
+		final int op;
+		final AVLNode a;
+		final AVLNode b;
+		final BinaryOperator<String> merge;
+		final int cutoff;
 
-		//Case 2:
-		if(this.root.getKey() < t.root.getKey() && this.getRoot().getHeight() >= t.getRoot().getHeight()) {
-			int val = joinRight(this, x, t).getJoinedResult();
-			this.updateMin();
-			this.updateMax();
-			return val;
+		CombineTask(int op, AVLNode a, AVLNode b, BinaryOperator<String> merge, int cutoff) {
+			this.op = op;
+			this.a = a;
+			this.b = b;
+			this.merge = merge;
+			this.cutoff = cutoff;
 		}
-		//Case 4:
-		if(this.root.getKey() > t.root.getKey() && this.getRoot().getHeight() <= t.getRoot().getHeight()) {	
-			AVLTree tmp = new AVLTree();
-			tmp.n = this.n;
-			tmp.min = this.min;
-			tmp.max = this.max;
-			tmp.root = this.root;
-
-			this.root = t.root;
-			this.n = t.n;
-			this.min = t.min;
-			this.max = t.max;
-
 
-			int val = joinRight(this,x,tmp).getJoinedResult();
-			this.updateMin();
-			this.updateMax();
-			return val;
+		protected AVLNode compute() {
+			return combineRaw(this.op, this.a, this.b, this.merge, this.cutoff, new AVLNode[3]);
 		}
-		return 0; // not reached
 	}
-	
-	/*
-	 * this is joinright method it receives it's arguments from join method in this order : t1.keys < x < t2.keys && rank(t1) >= rank(t2)
-	 * the method search on external right path in t1 tree until it find the node with rank(mark as b)<= t2.root.rank this action cost logn in w.c
-	 * Afterwards it connect b as the left child of x and t2.root as the right child of x and make x to right child of b.parent
-	 * Afterwards it update the sizes of the ancestors of b.parent up to the root by updateSizes method which will detail later
-	 * updateSizes operate in w.c complexty of O(logn).
-	 * Afterwards it checks if the the tree t1 is need rebalance ,if so the it cost  w.c complexty of O(logn).
-	 * the method also check if the rankdifference of b.parent is 2,0 ,if so we will make a left rotate and send to rebalance
-	 * the method returns : rank(t1)-rank(t2)+1
-	 */
-	
-	// t1.keys < x < t2.keys && rank(t1) >= rank(t2)
-	public IAVLNode joinRight(AVLTree t1, IAVLNode x, AVLTree t2) {
-		//This is t1
-		if(t2.empty()) {
-			int k1 = t1.getRoot().getHeight();
-			// k1 = -1 in the forum
-			t1.insert(x.getKey(), x.getValue());
-			t1.root.setJoinedResult(k1 + 2);
-			return t1.root;
-		}
-
-
-		//t1 not empty and t2 not empty
-		IAVLNode b = t1.root;
-		IAVLNode a = t2.root;
-		int k = t2.root.getHeight();
-		while(b.getHeight() > k) {
-			b = b.getRight();
-		}
-		// Now b is k-rank
-		if(b.getParent() == null) { // b is the the root of t1
-			int new_n = t1.n + t2.n+1;
-			int rankT1 = t1.getRoot().getHeight();
-			int rankT2 = t2.getRoot().getHeight();
-			x.setLeft(b);
-			b.setParent(x);
-
-			x.setRight(a);
-			a.setParent(x);
-
-			x.setSize(x.getLeft().getSize() + x.getRight().getSize() + 1);
-			x.setHeight(k+1);
-			x.setJoinedResult(rankT1 - rankT2 + 1);
-			this.n = new_n;
-			this.root.setSize(new_n);
-
-			return x;
-		}
-		// b is not root, might be k or k-1 rank
-		else {
-			// we need to check the case that t1 has 2 items - c and b. And t2 has only a
-			int rankT1 = t1.getRoot().getHeight();
-			int rankT2 = t2.getRoot().getHeight();
-
-			IAVLNode c = b.getParent();
-
-			x.setLeft(b);
-			b.setParent(x);
-
-			x.setRight(a);
-			a.setParent(x);
 
-			x.setSize(x.getLeft().getSize() + x.getRight().getSize() + 1);
-			x.setHeight(k+1);
-
-			x.setParent(c);
-			c.setRight(x);
+	//Solves the set operation op on the sub-trees a and b and returns the root of the result - see combine.
+	private AVLNode combineRaw(int op, AVLNode a, AVLNode b, BinaryOperator<String> merge, int cutoff, AVLNode[] out) {
+		if(!a.isRealNode())
+			return op == UNION ? b : a;
+		if(!b.isRealNode())
+			return op == INTERSECTION ? b : a;
+		boolean fork = a.size + b.size > cutoff;
+		AVLNode l = a.left;
+		AVLNode r = a.right;
+		l.setParent(null);
+		r.setParent(null);
+		splitRaw(b, a.key, out);
+		AVLNode bl = out[0];
+		AVLNode found = out[1];
+		AVLNode br = out[2];
+
+		AVLNode low;
+		AVLNode high;
+		if(fork) {
+			CombineTask task = new CombineTask(op, r, br, merge, cutoff);
+			task.fork();
+			low = combineRaw(op, l, bl, merge, cutoff, out);
+			high = task.join();
+		}
+		else {
+			low = combineRaw(op, l, bl, merge, cutoff, out);
+			high = combineRaw(op, r, br, merge, cutoff, out);
+		}
 
-			c.setSize(c.getLeft().getSize() + c.getRight().getSize() + 1);
-			updateSizes(c.getParent());
+		// The root of a is in the result of a union, in an intersection iff it is in b, and in a difference iff it is not
+		if(op != UNION && (op == INTERSECTION) != (found != null))
+			return concatRaw(low, high, out);
+		if(found != null && merge != null)
+			a.info = merge.apply(a.info, found.info);
+		return joinRaw(low, a, high);
+	}
 
-			int diffCX = c.getHeight() - x.getHeight();
-			if(diffCX == 0) { // c = k+1 rank, x = k+1 rank --> need to rebalance
-				if (c.getHeight()-c.getLeft().getHeight() == 2) {
-					LeftRotate(c);
-					rebalance(c.getParent(),0);
-					t1.root.setJoinedResult(rankT1 - rankT2 + 1);
-					return t1.root;
-				}
-				//No need problem of 2,0 and 1,1
-				rebalance(c,0);
-				t1.root.setJoinedResult(rankT1 - rankT2 + 1);
-				return t1.root;
-			}
-			if(diffCX == 1) {
-				t1.root.setJoinedResult(rankT1 - rankT2 + 1);
-				return t1.root;
-			}
+	/*
+	 * Returns the indexes of the distinct keys, sorted by key. Of equal keys only the first index is kept.
+	 * Every key is packed with its index into one long, key in the high half, so sorting the longs sorts by key and then by index.
+	 * Time complexity is O(m log m).
+	 */
+	private static long[] sortedOrder(int[] keys) {
+		long[] order = new long[keys.length];
+		for(int i = 0; i < keys.length; i++)
+			order[i] = ((long) keys[i] << 32) | i;
+		Arrays.sort(order);
+		int m = 0;
+		for(int i = 0; i < order.length; i++) {
+			if(m == 0 || (int) (order[i] >> 32) != (int) (order[m - 1] >> 32))
+				order[m++] = order[i];
+		}
+		return m == order.length ? order : Arrays.copyOf(order, m);
+	}
 
+	//Makes the sub-tree top (maybe virtual) the whole tree, and updates n, min, max and modCount - O(log n)
+	private void setRootRaw(AVLNode top) {
+		if(top.isRealNode()) {
+			top.parent = null;
+			this.root = top;
+			this.n = top.size;
+		}
+		else {
+			this.root = null;
+			this.n = 0;
 		}
-		return null; // not reached
+		this.modCount++;
+		this.finger = null;
+		updateMin();
+		updateMax();
 	}
 
 	/*
-	 * this is joinright method it receives it's arguments from join method in this order : t1.keys < x < t2.keys && rank(t1) <= rank(t2)
-	 * it works symmetrically to joinright but with symmetric cases which means:
-	 * the method search on external left path in t2 tree until it find the node with rank(mark as b)<= t1.root.rank this action cost logn in w.c
-	 *  Afterwards it connect b as the right child of x and t1.root as the left child of x and make x to left child of b.parent
-	 *  Afterwards it update the sizes of the ancestors of b.parent up to the root by updateSizes method which will detail later.
-	 *  updateSizes operate in w.c complexty of O(logn).
-	 *  the method also check if the rankdifference of b.parent is 0,2 ,if so we will make a right rotate and send to rebalance
-	 *  the method returns : rank(t2)-rank(t1)+1
+	 * From here go the helpers of the batch operations and join. They work on raw sub-trees: a root whose parent is null,
+	 * or a virtual leaf for an empty sub-tree. They never touch root, n, min or max of the tree, so the callers set them once at the end.
+	 * Every link to a node that may be virtual goes through its setter, which the shared virtual leaf ignores.
 	 */
-	
-	
-	// t1.keys < x < t2.keys && rank(t2) >= rank(t1) 
-	public IAVLNode joinLeft(AVLTree t1, IAVLNode x, AVLTree t2) {
-
-		if(t1.empty()) {
-			int k2 = t2.getRoot().getHeight();
-			// k1 = -1 in the forum
-			t2.insert(x.getKey(), x.getValue()); // x will be minimal
-			t2.root.setJoinedResult(k2 + 2);
-			return t2.root;
-		} 
-
-		IAVLNode b = t2.root;
-		IAVLNode a = t1.root;
-		int k = t1.root.getHeight();
-		while(b.getHeight() > k) {
-			b = b.getLeft();
-		}
-		// Now b is k-rank
-		// WE can maybe delete here because here heights are equal
-		if(b.getParent() == null) { // be is the the root of t2
-			int rankT1 = t1.getRoot().getHeight();
-			int rankT2 = t2.getRoot().getHeight();
-			x.setLeft(a);
-			a.setParent(x);
-
-			x.setRight(b);
-			b.setParent(x);
-
-			x.setSize(x.getLeft().getSize() + x.getRight().getSize() + 1);
-			x.setHeight(k+1);
-			x.setJoinedResult(rankT2 - rankT1 + 1);
-
-			return x;
-		}
-		// b is not root, might be k or k-1 rank
-		else {
-			// we need to check the case that t2 has 2 items - c and b. And t1 has only a
-			int rankT1 = t1.getRoot().getHeight();
-			int rankT2 = t2.getRoot().getHeight();
 
-			IAVLNode c = b.getParent();
-
-			x.setLeft(a);
-			a.setParent(x);
-
-			x.setRight(b);
-			b.setParent(x);
+	//Merges the sorted distinct keys[lo..hi) (and their infos) into the sub-tree t and returns the new root - see insertAll.
+	private AVLNode unionRaw(AVLNode t, int[] keys, String[] infos, int lo, int hi, AVLNode[] out) {
+		if(lo >= hi)
+			return t;
+		if(!t.isRealNode())
+			return buildRaw(keys, infos, lo, hi);
+		int mid = (lo + hi) >>> 1;
+		splitRaw(t, keys[mid], out);
+		AVLNode low = out[0];
+		AVLNode node = out[1];
+		AVLNode high = out[2];
+		low = unionRaw(low, keys, infos, lo, mid, out);
+		high = unionRaw(high, keys, infos, mid + 1, hi, out);
+		if(node == null)
+			node = new AVLNode(VIRTUAL, VIRTUAL, null, keys[mid], infos == null ? null : infos[mid]);
+		return joinRaw(low, node, high);
+	}
 
-			x.setSize(x.getLeft().getSize() + x.getRight().getSize() + 1);
-			x.setHeight(k+1);
+	//Removes the sorted distinct keys[lo..hi) from the sub-tree t and returns the new root - see deleteAll.
+	private AVLNode differenceRaw(AVLNode t, int[] keys, int lo, int hi, AVLNode[] out) {
+		if(lo >= hi || !t.isRealNode())
+			return t;
+		int mid = (lo + hi) >>> 1;
+		splitRaw(t, keys[mid], out);
+		AVLNode low = out[0];
+		AVLNode high = out[2];
+		low = differenceRaw(low, keys, lo, mid, out);
+		high = differenceRaw(high, keys, mid + 1, hi, out);
+		return concatRaw(low, high, out);
+	}
 
-			x.setParent(c);
-			c.setLeft(x);
+	//Joins two sub-trees with keys(l) < keys(r) and no node between them: the minimum of r is split out of it and used as the middle node - O(log n)
+	private AVLNode concatRaw(AVLNode l, AVLNode r, AVLNode[] out) {
+		if(!r.isRealNode())
+			return l;
+		if(!l.isRealNode())
+			return r;
+		AVLNode first = r;
+		while(first.left.isRealNode())
+			first = first.left;
+		splitRaw(r, first.key, out);
+		return joinRaw(l, out[1], out[2]);
+	}
 
-			c.setSize(c.getLeft().getSize() + c.getRight().getSize() + 1);
-			updateSizes(c.getParent());
+	//Builds a balanced sub-tree of the sorted keys[lo..hi) and returns its root - O(hi - lo), like fromSorted
+	private AVLNode buildRaw(int[] keys, String[] infos, int lo, int hi) {
+		if(lo >= hi)
+			return VIRTUAL;
+		int mid = (lo + hi) >>> 1;
+		AVLNode left = buildRaw(keys, infos, lo, mid);
+		AVLNode right = buildRaw(keys, infos, mid + 1, hi);
+		AVLNode node = new AVLNode(right, left, null, keys[mid], infos == null ? null : infos[mid]);
+		left.setParent(node);
+		right.setParent(node);
+		node.rank = Math.max(left.rank, right.rank) + 1;
+		node.size = hi - lo;
+		return node;
+	}
 
-			int diffCX = c.getHeight() - x.getHeight();
-			if(diffCX == 0) { // c = k+1 rank, x = k+1 rank --> need to rebalance
-				if (c.getHeight()-c.getRight().getHeight() == 2) {
-					RightRotate(c);
-					rebalance(c.getParent(),0);
-					t2.root.setJoinedResult(rankT2 - rankT1 + 1);
-					return t2.root;				
-				}
-				rebalance(c,0);
-				t2.root.setJoinedResult(rankT2 - rankT1 + 1);
-				return t2.root;
-			}
-			if(diffCX == 1) {
-				t2.root.setJoinedResult(rankT2 - rankT1 + 1);
-				return t2.root;
-			}
+	/*
+	 * Splits the sub-tree t by the key k into out[0] = keys < k and out[2] = keys > k, and puts the node with key k,
+	 * cut from the tree (a leaf of rank 0 and size 1), in out[1], or null if there is none.
+	 * Going down to k, every node on the path is joined with its other sub-tree into the side it belongs to.
+	 * Time complexity is O(log n), as the joins telescope along the path. The recursion depth is the height of t.
+	 */
+	private void splitRaw(AVLNode t, int k, AVLNode[] out) {
+		if(!t.isRealNode()) {
+			out[0] = VIRTUAL;
+			out[1] = null;
+			out[2] = VIRTUAL;
+			return;
 		}
+		AVLNode l = t.left;
+		AVLNode r = t.right;
+		l.setParent(null);
+		r.setParent(null);
+		if(k < t.key) {
+			splitRaw(l, k, out);
+			out[2] = joinRaw(out[2], t, r);
+		}
+		else if(k > t.key) {
+			splitRaw(r, k, out);
+			out[0] = joinRaw(l, t, out[0]);
+		}
+		else {
+			t.left = VIRTUAL;
+			t.right = VIRTUAL;
+			t.parent = null;
+			t.rank = 0;
+			t.size = 1;
+			out[0] = l;
+			out[1] = t;
+			out[2] = r;
+		}
+	}
 
-
-		return null; // not reached
+	/*
+	 * Joins the sub-trees l and r with the node x, where keys(l) < x < keys(r), and returns the root of the joined sub-tree.
+	 * The join, its rebalancing and the rotations are the ones of AbstractAVLTree, as AVLNode is one of its nodes;
+	 * they skip VIRTUAL like they skip a missing node, and they count into the metrics of this tree through the balancer.
+	 * Time Complexity is O(|rank(l) - rank(r)| + 1).
+	 */
+	private AVLNode joinRaw(AVLNode l, AVLNode x, AVLNode r) {
+		if(this.metrics != null)
+			this.metrics.join(Math.abs(l.rank - r.rank));
+		Balancer balancer = this.balancer;
+		if(balancer == null)
+			balancer = this.balancer = new Balancer();
+		return balancer.join(l, x, r);
 	}
-	/*this method update the sizes of the ancestors of the node argument including him by going in the path up to the root. 
-	 * the w.c complexity is O(logn) because the path from the node up to the root is bounded by the height of the tree which is O(logn)
+
+	/*
+	 * The code of AbstractAVLTree over the nodes of this tree. It only works on the sub-trees that it gets,
+	 * never on its own root, min and max, and reports the rotations and rank changes to the counters of this tree.
 	 */
-	public void updateSizes(IAVLNode node) {//we will send the parent of c
-		while(node!= null) {
-			node.setSize(node.getLeft().getSize() + node.getRight().getSize() + 1);
-			node=node.getParent();
+	private final class Balancer extends AbstractAVLTree<AVLNode> {
+		void rotated() {
+			countRotation();
 		}
-	}
 
+		void reranked(int oldRank, int newRank) {
+			countRanks(Math.max(newRank - oldRank, 0), Math.max(oldRank - newRank, 0));
+		}
+	}
 
 	/**
 	 * public interface IAVLNode
@@ -1375,9 +2111,6 @@ public class AVLTree {
 		// Methods Added to the interface that were not included in the original interface
 		public void setSize(int size); //sets the size of the node
 		public int getSize(); //Returns the size of the node
-
-		public void setJoinedResult(int res); //sets the joinedResult attribute
-		public int getJoinedResult(); //Returns the joinedResult attribute
 	}
 
 	/**
@@ -1388,16 +2121,15 @@ public class AVLTree {
 	 * another file.
 	 * This class can and must be modified.
 	 * (It must implement IAVLNode)
+	 *
+	 * The class is static, so a node has no hidden pointer to its tree, and final, so the code of the tree
+	 * reads and writes its fields directly on the hot paths (search, insert, the walks), and the calls through
+	 * IAVLNode that are left always reach this class. IAVLNode is the interface of the nodes for the callers outside the tree.
+	 * The structure fields (left, right, parent, rank and size) are the ones of AbstractAVLTree.Node, so the join code is shared.
 	 */
-	public class AVLNode implements IAVLNode{
-		AVLNode right;    //element in the right of this node
-		AVLNode left;     //element in the left of this node
-		AVLNode parent;   //element that is the parent of this node
+	public static final class AVLNode extends AbstractAVLTree.Node<AVLNode> implements IAVLNode{
 		int key;          //the key of the node
-		int rank;         //the rank of the node
 		String info;      //the info about the node
-		int size;         //the size of the node(including himself)
-		int joinedResult; //attribute that is used in the join function. This attribute for inner use only
 
 		//Contractor for virtual leafs --> don't have a key to insert as an argument
 		public AVLNode() {  
@@ -1437,7 +2169,8 @@ public class AVLTree {
 
 		//Setter for left element - O(1) time complexity
 		public void setLeft(IAVLNode node){
-			this.left = (AVLNode)node;
+			if(this != VIRTUAL)
+				this.left = (AVLNode)node;
 		}
 
 		//Getter for left element - O(1) time complexity
@@ -1447,7 +2180,8 @@ public class AVLTree {
 
 		//Setter for right element - O(1) time complexity
 		public void setRight(IAVLNode node){
-			this.right = (AVLNode)node;
+			if(this != VIRTUAL)
+				this.right = (AVLNode)node;
 		}
 
 		//Getter for right element - O(1) time complexity
@@ -1457,7 +2191,8 @@ public class AVLTree {
 
 		//Setter for element above - O(1) time complexity
 		public void setParent(IAVLNode node){
-			this.parent = (AVLNode)node;
+			if(this != VIRTUAL)
+				this.parent = (AVLNode)node;
 		}
 
 		//Getter for element above - O(1) time complexity
@@ -1474,7 +2209,8 @@ public class AVLTree {
 
 		//Setter for Height(Rank) attribute - O(1) time complexity
 		public void setHeight(int height){
-			this.rank = height;
+			if(this != VIRTUAL)
+				this.rank = height;
 		}
 
 		//Getter for Height(=Rank) attribute - O(1) time complexity
@@ -1484,7 +2220,8 @@ public class AVLTree {
 
 		//Setter for size attribute - O(1) time complexity
 		public void setSize(int size) {
-			this.size = size;
+			if(this != VIRTUAL)
+				this.size = size;
 		}
 
 		//Getter for size attribute - O(1) time complexity
@@ -1492,21 +2229,6 @@ public class AVLTree {
 			return this.size;
 		}
 
-		//Next functions are inner functions that are used in the join function.
-
-		//Setter for joinedResult attribute - O(1) time complexity
-		public void setJoinedResult(int res) {
-			this.joinedResult = res;
-		}
-
-		//Getter for joinedResult attribute - O(1) time complexity
-		public int getJoinedResult() {
-			return this.joinedResult;
-		}
-
-
 	}
 
 }
-
-
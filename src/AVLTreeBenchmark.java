@@ -0,0 +1,549 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ *
+ * AVLTreeBenchmark
+ *
+ * A micro-benchmark harness for the AVLTree operations.
+ * It measures insert, delete, search, split, join, keysToArray and infoToArray,
+ * their parallel versions and the parallel stream of keys() (keysStream) over sequential, nearly sorted, random and zipfian key distributions.
+ * For every (operation, distribution, size) it reports the throughput, latency percentiles,
+ * the allocation rate (bytes per operation) and the number of GC cycles that happened while measuring.
+ * Every iteration runs twice on the same state: a throughput pass that times only the whole loop, where the throughput,
+ * the bytes and the GC cycles come from, and a latency pass that times sampled operations one by one for the percentiles,
+ * so the cost of System.nanoTime() around single operations is not in the throughput.
+ * All the runs share one JVM. For forked runs under JMH, see the benchmarks of the jmh directory.
+ *
+ * The mixed operation measures ConcurrentAVLTree: for every thread count it runs a workload of reads-% searches
+ * and inserts and deletes for the rest, from all the threads at once, and it is reported as mixed-<threads>.
+ * It only runs when it is asked for in -ops.
+ *
+ * usage: java AVLTreeBenchmark [-ops insert,search,...,mixed] [-dist sequential,nearlySorted,random,zipfian]
+ *                              [-sizes 1000,10000,...] [-warmup 3] [-iterations 5] [-seed 42]
+ *                              [-threads 1,2,4,...] [-reads 90]
+ *
+ */
+
+public class AVLTreeBenchmark {
+
+	static final String[] ALL_OPS = {"insert", "delete", "search", "split", "join", "keysToArray", "infoToArray",
+			"parallelKeysToArray", "parallelInfoToArray", "keysStream"};
+	static final String[] ALL_DISTS = {"sequential", "nearlySorted", "random", "zipfian"};
+	static final int JITTER = 16; //The nearly sorted keys are shuffled within windows of this many keys
+	static final int[] DEFAULT_SIZES = {1000, 10000, 100000, 1000000, 10000000};
+	static final int[] DEFAULT_THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+	//The maximal number of latency samples that are kept per iteration. Only every stride-th operation is timed on its own.
+	static final int MAX_SAMPLES = 100000;
+	//The number of tree nodes that we allow to be built for the split/join/traversal benchmarks in one iteration
+	static final int NODES_PER_ITERATION = 1000000;
+
+	String[] ops = ALL_OPS;
+	String[] dists = ALL_DISTS;
+	int[] sizes = DEFAULT_SIZES;
+	int warmup = 3;
+	int iterations = 5;
+	long seed = 42;
+	int[] threads = DEFAULT_THREADS;
+	int reads = 90; //The percentage of searches in the mixed workload
+
+	static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	public static void main(String[] args) {
+		AVLTreeBenchmark bench = new AVLTreeBenchmark();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			switch (args[i]) {
+			case "-ops":
+				bench.ops = value.split(",");
+				break;
+			case "-dist":
+				bench.dists = value.split(",");
+				break;
+			case "-sizes":
+				bench.sizes = ints(value);
+				break;
+			case "-threads":
+				bench.threads = ints(value);
+				break;
+			case "-reads":
+				bench.reads = Integer.parseInt(value);
+				break;
+			case "-warmup":
+				bench.warmup = Integer.parseInt(value);
+				break;
+			case "-iterations":
+				bench.iterations = Integer.parseInt(value);
+				break;
+			case "-seed":
+				bench.seed = Long.parseLong(value);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+		bench.run();
+	}
+
+	static int[] ints(String value) {
+		String[] parts = value.split(",");
+		int[] arr = new int[parts.length];
+		for (int j = 0; j < parts.length; j++)
+			arr[j] = Integer.parseInt(parts[j].trim());
+		return arr;
+	}
+
+	//Runs every requested combination and prints one line of results for each of them.
+	public void run() {
+		System.out.printf("%-19s %-12s %10s %14s %9s %9s %9s %9s %11s %10s %5s%n",
+				"op", "dist", "size", "ops/s", "p50(ns)", "p90(ns)", "p99(ns)", "p99.9(ns)", "max(ns)", "B/op", "gcs");
+		for (int size : this.sizes)
+			for (String dist : this.dists)
+				for (String op : this.ops) {
+					if (op.equals("mixed")) {
+						for (int threads : this.threads)
+							report("mixed-" + threads, dist, size, measure("mixed-" + threads, dist, size));
+					}
+					else
+						report(op, dist, size, measure(op, dist, size));
+				}
+	}
+
+	public Result measure(String op, String dist, int size) {
+		Result total = new Result();
+		for (int i = 0; i < this.warmup + this.iterations; i++) {
+			Result res = runIteration(op, dist, size, new Random(this.seed + i), false);
+			Result latency = runIteration(op, dist, size, new Random(this.seed + i), true);
+			if (i >= this.warmup) {
+				res.samples = latency.samples;
+				total.add(res);
+			}
+		}
+		return total;
+	}
+
+	/*
+	 * One pass of an iteration of a benchmark. The state (keys and trees) is prepared before the measured part begins,
+	 * so only the operation itself is counted in the time and in the allocated bytes.
+	 * Only a sampling pass times single operations, and only its latencies are kept.
+	 */
+	Result runIteration(String op, String dist, int size, Random rnd, boolean sampling) {
+		int[] keys = keys(dist, size, rnd);
+		int[] access = accesses(dist, keys, rnd);
+		String[] infos = infos(keys);
+		String[] accessInfos = access == keys ? infos : infos(access);
+		if (op.startsWith("mixed-"))
+			return runMixed(Integer.parseInt(op.substring("mixed-".length())), keys, infos, access, accessInfos, rnd, sampling);
+		Recorder rec = new Recorder(sampling);
+
+		switch (op) {
+		case "insert": {
+			AVLTree t = new AVLTree();
+			rec.start(access.length);
+			for (int i = 0; i < access.length; i++) {
+				long s = rec.before(i);
+				t.insert(access[i], accessInfos[i]);
+				rec.after(i, s);
+			}
+			return rec.stop(t.size());
+		}
+		case "delete": {
+			AVLTree t = build(keys, infos);
+			rec.start(access.length);
+			for (int i = 0; i < access.length; i++) {
+				long s = rec.before(i);
+				t.delete(access[i]);
+				rec.after(i, s);
+			}
+			return rec.stop(t.size());
+		}
+		case "search": {
+			AVLTree t = build(keys, infos);
+			int found = 0;
+			rec.start(access.length);
+			for (int i = 0; i < access.length; i++) {
+				long s = rec.before(i);
+				if (t.search(access[i]) != null)
+					found++;
+				rec.after(i, s);
+			}
+			return rec.stop(found);
+		}
+		case "split": {
+			AVLTree[] trees = copies(keys, infos);
+			int[] at = splitKeys(keys, trees.length, rnd);
+			int sink = 0;
+			rec.start(trees.length);
+			for (int i = 0; i < trees.length; i++) {
+				long s = rec.before(i);
+				AVLTree[] parts = trees[i].split(at[i]);
+				rec.after(i, s);
+				sink += parts[0].empty() ? 0 : 1;
+			}
+			return rec.stop(sink);
+		}
+		case "join": {
+			AVLTree[] trees = copies(keys, infos);
+			int[] at = splitKeys(keys, trees.length, rnd);
+			AVLTree[][] parts = new AVLTree[trees.length][];
+			AVLTree.IAVLNode[] middles = new AVLTree.IAVLNode[trees.length];
+			for (int i = 0; i < trees.length; i++) {
+				parts[i] = trees[i].split(at[i]);
+				middles[i] = new AVLTree.AVLNode(AVLTree.VIRTUAL, AVLTree.VIRTUAL, null, at[i], Integer.toString(at[i]));
+			}
+			int sink = 0;
+			rec.start(trees.length);
+			for (int i = 0; i < trees.length; i++) {
+				long s = rec.before(i);
+				sink += parts[i][0].join(middles[i], parts[i][1]);
+				rec.after(i, s);
+			}
+			return rec.stop(sink);
+		}
+		case "keysToArray":
+		case "infoToArray":
+		case "parallelKeysToArray":
+		case "parallelInfoToArray":
+		case "keysStream": {
+			AVLTree t = build(keys, infos);
+			int repeat = Math.max(1, NODES_PER_ITERATION / size);
+			int sink = 0;
+			rec.start(repeat);
+			for (int i = 0; i < repeat; i++) {
+				long s = rec.before(i);
+				sink += export(t, op);
+				rec.after(i, s);
+			}
+			return rec.stop(sink);
+		}
+		default:
+			throw new IllegalArgumentException("unknown operation " + op);
+		}
+	}
+
+	//Runs one of the operations that export the whole tree, and returns something of its result for the sink
+	static int export(AVLTree t, String op) {
+		switch (op) {
+		case "keysToArray":
+			return t.keysToArray().length;
+		case "infoToArray":
+			return t.infoToArray().length;
+		case "parallelKeysToArray":
+			return t.parallelKeysToArray().length;
+		case "parallelInfoToArray":
+			return t.parallelInfoToArray().length;
+		default:
+			return t.keys().parallel().toArray().length;
+		}
+	}
+
+	/*
+	 * One iteration of the mixed workload of ConcurrentAVLTree. The tree starts with every other key,
+	 * so about half of the inserts and deletes find their key. Every thread runs its own slice of the accesses
+	 * with its own Recorder, so the latencies and the allocated bytes are the sums of all the threads,
+	 * while the throughput is the one of the wall clock from the moment that all the threads are released.
+	 */
+	Result runMixed(int threads, int[] keys, String[] infos, int[] access, String[] accessInfos, Random rnd, boolean sampling) {
+		ConcurrentAVLTree t = new ConcurrentAVLTree();
+		for (int i = 0; i < keys.length; i += 2)
+			t.insert(keys[i], infos[i]);
+		byte[] kinds = new byte[access.length]; //0 - search, 1 - insert, 2 - delete
+		for (int i = 0; i < kinds.length; i++)
+			kinds[i] = (byte) (rnd.nextInt(100) < this.reads ? 0 : 1 + rnd.nextInt(2));
+
+		Result[] results = new Result[threads];
+		Thread[] workers = new Thread[threads];
+		CountDownLatch ready = new CountDownLatch(threads);
+		CountDownLatch go = new CountDownLatch(1);
+		for (int w = 0; w < threads; w++) {
+			int id = w;
+			int from = (int) ((long) access.length * w / threads);
+			int to = (int) ((long) access.length * (w + 1) / threads);
+			workers[w] = new Thread(() -> {
+				Recorder rec = new Recorder(sampling);
+				ready.countDown();
+				await(go);
+				int sink = 0;
+				rec.start(to - from);
+				for (int i = from; i < to; i++) {
+					long s = rec.before(i - from);
+					if (kinds[i] == 0)
+						sink += t.search(access[i]) != null ? 1 : 0;
+					else if (kinds[i] == 1)
+						sink += t.insert(access[i], accessInfos[i]);
+					else
+						sink += t.delete(access[i]);
+					rec.after(i - from, s);
+				}
+				results[id] = rec.stop(sink);
+			});
+			workers[w].start();
+		}
+		await(ready);
+		long gcs = gcCount();
+		long start = System.nanoTime();
+		go.countDown();
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+		}
+		Result total = new Result();
+		for (Result r : results)
+			total.add(r);
+		total.nanos = System.nanoTime() - start;
+		total.gcs = gcCount() - gcs;
+		return total;
+	}
+
+	static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String[] infos(int[] keys) {
+		String[] infos = new String[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			infos[i] = Integer.toString(keys[i]);
+		return infos;
+	}
+
+	//Builds a tree with all the given keys. The insertion order is the order of the keys array.
+	static AVLTree build(int[] keys, String[] infos) {
+		AVLTree t = new AVLTree();
+		for (int i = 0; i < keys.length; i++)
+			t.insert(keys[i], infos[i]);
+		return t;
+	}
+
+	//Split destroys the tree it is called on, so every split (or join) needs a tree of its own.
+	static AVLTree[] copies(int[] keys, String[] infos) {
+		int count = Math.max(1, Math.min(1000, NODES_PER_ITERATION / keys.length));
+		AVLTree[] trees = new AVLTree[count];
+		for (int i = 0; i < count; i++)
+			trees[i] = build(keys, infos);
+		return trees;
+	}
+
+	static int[] splitKeys(int[] keys, int count, Random rnd) {
+		int[] at = new int[count];
+		for (int i = 0; i < count; i++)
+			at[i] = keys[rnd.nextInt(keys.length)];
+		return at;
+	}
+
+	/*
+	 * The keys that are stored in the tree.
+	 * sequential - 0,1,...,size-1 in increasing order.
+	 * nearlySorted - the same, shuffled within consecutive windows of JITTER keys, like monotonic ids that arrive a little out of order.
+	 * random and zipfian - the same keys in a random order (the zipfian distribution only changes the access pattern).
+	 */
+	static int[] keys(String dist, int size, Random rnd) {
+		int[] keys = new int[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = i;
+		if (dist.equals("nearlySorted")) {
+			for (int from = 0; from < size; from += JITTER)
+				shuffle(keys, from, Math.min(size, from + JITTER), rnd);
+		}
+		else if (!dist.equals("sequential"))
+			shuffle(keys, rnd);
+		return keys;
+	}
+
+	/*
+	 * The keys that are accessed by insert/delete/search.
+	 * For sequential and random this is the key set itself, for zipfian the keys are drawn
+	 * from a zipfian distribution over the sorted key set, so a few small keys are very hot.
+	 */
+	static int[] accesses(String dist, int[] keys, Random rnd) {
+		if (!dist.equals("zipfian"))
+			return keys;
+		int[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		Zipfian zipf = new Zipfian(sorted.length, 0.99);
+		int[] access = new int[keys.length];
+		for (int i = 0; i < access.length; i++)
+			access[i] = sorted[zipf.next(rnd)];
+		return access;
+	}
+
+	static void shuffle(int[] arr, Random rnd) {
+		shuffle(arr, 0, arr.length, rnd);
+	}
+
+	//Shuffles arr[from..to)
+	static void shuffle(int[] arr, int from, int to, Random rnd) {
+		for (int i = to - 1; i > from; i--) {
+			int j = from + rnd.nextInt(i - from + 1);
+			int tmp = arr[i];
+			arr[i] = arr[j];
+			arr[j] = tmp;
+		}
+	}
+
+	static void report(String op, String dist, int size, Result r) {
+		long[] lat = r.latencies();
+		System.out.printf("%-19s %-12s %10d %14.0f %9d %9d %9d %9d %11d %10.1f %5d%n",
+				op, dist, size, r.ops / (r.nanos / 1e9),
+				percentile(lat, 0.50), percentile(lat, 0.90), percentile(lat, 0.99), percentile(lat, 0.999),
+				lat.length == 0 ? 0 : lat[lat.length - 1],
+				(double) r.bytes / r.ops, r.gcs);
+	}
+
+	//lat must be sorted
+	static long percentile(long[] lat, double p) {
+		if (lat.length == 0)
+			return 0;
+		int idx = (int) Math.ceil(p * lat.length) - 1;
+		return lat[Math.max(0, Math.min(lat.length - 1, idx))];
+	}
+
+	static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	/*
+	 * Records the measurements of one pass.
+	 * In a sampling pass every stride-th operation is timed on its own, so at most MAX_SAMPLES latencies are kept.
+	 * Otherwise no single operation is timed, and before and after only test the flag.
+	 */
+	static final class Recorder {
+		final boolean sampling;
+		long[] samples;
+		int count;
+		int stride;
+		long startNanos;
+		long startBytes;
+		long startGcs;
+		int ops;
+
+		Recorder(boolean sampling) {
+			this.sampling = sampling;
+		}
+
+		void start(int ops) {
+			this.ops = ops;
+			this.stride = Math.max(1, ops / MAX_SAMPLES);
+			this.samples = new long[this.sampling ? Math.min(ops, MAX_SAMPLES) + 1 : 0];
+			this.count = 0;
+			this.startGcs = gcCount();
+			this.startBytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+			this.startNanos = System.nanoTime();
+		}
+
+		long before(int i) {
+			return this.sampling && i % this.stride == 0 ? System.nanoTime() : 0;
+		}
+
+		void after(int i, long start) {
+			if (this.sampling && i % this.stride == 0 && this.count < this.samples.length)
+				this.samples[this.count++] = System.nanoTime() - start;
+		}
+
+		//sink is an unused value that keeps the measured results alive
+		Result stop(int sink) {
+			long nanos = System.nanoTime() - this.startNanos;
+			long bytes = THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) - this.startBytes;
+			Result r = new Result();
+			r.ops = this.ops;
+			r.nanos = nanos;
+			r.bytes = bytes;
+			r.gcs = gcCount() - this.startGcs;
+			r.samples.add(Arrays.copyOf(this.samples, this.count));
+			r.sink = sink;
+			return r;
+		}
+	}
+
+	//The accumulated measurements of all the measured iterations of one benchmark
+	static final class Result {
+		long ops;
+		long nanos;
+		long bytes;
+		long gcs;
+		long sink;
+		List<long[]> samples = new ArrayList<>();
+
+		void add(Result other) {
+			this.ops += other.ops;
+			this.nanos += other.nanos;
+			this.bytes += other.bytes;
+			this.gcs += other.gcs;
+			this.sink += other.sink;
+			this.samples.addAll(other.samples);
+		}
+
+		long[] latencies() {
+			int total = 0;
+			for (long[] s : this.samples)
+				total += s.length;
+			long[] all = new long[total];
+			int pos = 0;
+			for (long[] s : this.samples) {
+				System.arraycopy(s, 0, all, pos, s.length);
+				pos += s.length;
+			}
+			Arrays.sort(all);
+			return all;
+		}
+	}
+
+	/*
+	 * Zipfian generator over the ranks 0..n-1 (rank 0 is the most popular one).
+	 * This is the algorithm of Gray et al. "Quickly Generating Billion-Record Synthetic Databases".
+	 * Building the generator takes O(n) time, every draw takes O(1) time.
+	 */
+	static final class Zipfian {
+		final int n;
+		final double theta;
+		final double alpha;
+		final double zetan;
+		final double eta;
+
+		Zipfian(int n, double theta) {
+			this.n = n;
+			this.theta = theta;
+			double zeta2 = zeta(2, theta);
+			this.zetan = zeta(n, theta);
+			this.alpha = 1.0 / (1.0 - theta);
+			this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / this.zetan);
+		}
+
+		static double zeta(int n, double theta) {
+			double sum = 0;
+			for (int i = 1; i <= n; i++)
+				sum += 1 / Math.pow(i, theta);
+			return sum;
+		}
+
+		int next(Random rnd) {
+			double u = rnd.nextDouble();
+			double uz = u * this.zetan;
+			if (uz < 1.0)
+				return 0;
+			if (uz < 1.0 + Math.pow(0.5, this.theta))
+				return Math.min(1, this.n - 1);
+			int rank = (int) (this.n * Math.pow(this.eta * u - this.eta + 1, this.alpha));
+			return Math.min(rank, this.n - 1);
+		}
+	}
+}
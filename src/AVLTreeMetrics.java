@@ -0,0 +1,164 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ *
+ * AVLTreeMetrics
+ *
+ * The rebalancing counters of one tree (and of the trees that split returns from it), see AVLTree.enableMetrics().
+ * A tree without metrics only checks that its metrics field is null, so the counters cost nothing when they are off.
+ * The counters are LongAdders: the set operations of AVLTree update them from several threads, and an update does not contend
+ * with the others. A reader gets the values through snapshot(), or through JMX after register().
+ *
+ */
+
+public final class AVLTreeMetrics implements AVLTreeMetricsMBean {
+	final LongAdder rotations = new LongAdder();
+	final LongAdder promotions = new LongAdder();
+	final LongAdder demotions = new LongAdder();
+	final LongAdder joins = new LongAdder();
+	final LongAdder joinRankDifferences = new LongAdder();
+	final LongAccumulator maxJoinRankDifference = new LongAccumulator(Math::max, 0);
+	final LongAdder splits = new LongAdder();
+	final LongAdder splitPathLength = new LongAdder();
+
+	//Records a join of two sub-trees whose ranks differ by rankDifference - O(1)
+	void join(int rankDifference) {
+		this.joins.increment();
+		this.joinRankDifferences.add(rankDifference);
+		this.maxJoinRankDifference.accumulate(rankDifference);
+	}
+
+	//Records a split that walked up through pathLength ancestors - O(1)
+	void split(int pathLength) {
+		this.splits.increment();
+		this.splitPathLength.add(pathLength);
+	}
+
+	public long getRotations() {
+		return this.rotations.sum();
+	}
+
+	public long getPromotions() {
+		return this.promotions.sum();
+	}
+
+	public long getDemotions() {
+		return this.demotions.sum();
+	}
+
+	public long getJoins() {
+		return this.joins.sum();
+	}
+
+	public long getJoinRankDifferences() {
+		return this.joinRankDifferences.sum();
+	}
+
+	public long getMaxJoinRankDifference() {
+		return this.maxJoinRankDifference.get();
+	}
+
+	public long getSplits() {
+		return this.splits.sum();
+	}
+
+	public long getSplitPathLength() {
+		return this.splitPathLength.sum();
+	}
+
+	/**
+	 * public void reset()
+	 *
+	 * Sets all the counters to 0. Updates that run at the same time may be lost or kept.
+	 */
+	public void reset() {
+		this.rotations.reset();
+		this.promotions.reset();
+		this.demotions.reset();
+		this.joins.reset();
+		this.joinRankDifferences.reset();
+		this.maxJoinRankDifference.reset();
+		this.splits.reset();
+		this.splitPathLength.reset();
+	}
+
+	/**
+	 * public Snapshot snapshot()
+	 *
+	 * Returns the current values of the counters. Every counter is read once, so counters that are updated
+	 * at the same time may be a few updates apart from each other.
+	 */
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	/**
+	 * public ObjectName register(String name)
+	 *
+	 * Registers these metrics in the platform MBean server as AVLTree:type=Metrics,name=<name>, and returns the name.
+	 * Throws JMException if the name is taken or invalid.
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("AVLTree:type=Metrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	/**
+	 * public void unregister(ObjectName name)
+	 *
+	 * Removes the MBean that register returned from the platform MBean server.
+	 */
+	public void unregister(ObjectName name) throws JMException {
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+	}
+
+	/**
+	 * public static final class Snapshot
+	 *
+	 * The values of the counters at one moment. Immutable.
+	 */
+	public static final class Snapshot {
+		public final long rotations;
+		public final long promotions;
+		public final long demotions;
+		public final long joins;
+		public final long joinRankDifferences;
+		public final long maxJoinRankDifference;
+		public final long splits;
+		public final long splitPathLength;
+
+		Snapshot(AVLTreeMetrics metrics) {
+			this.rotations = metrics.getRotations();
+			this.promotions = metrics.getPromotions();
+			this.demotions = metrics.getDemotions();
+			this.joins = metrics.getJoins();
+			this.joinRankDifferences = metrics.getJoinRankDifferences();
+			this.maxJoinRankDifference = metrics.getMaxJoinRankDifference();
+			this.splits = metrics.getSplits();
+			this.splitPathLength = metrics.getSplitPathLength();
+		}
+
+		//The average |rank difference| of a join, 0 if there were no joins
+		public double averageJoinRankDifference() {
+			return this.joins == 0 ? 0 : (double) this.joinRankDifferences / this.joins;
+		}
+
+		//The average number of ancestors that a split walked up through, 0 if there were no splits
+		public double averageSplitPathLength() {
+			return this.splits == 0 ? 0 : (double) this.splitPathLength / this.splits;
+		}
+
+		public String toString() {
+			return "rotations=" + this.rotations + " promotions=" + this.promotions + " demotions=" + this.demotions
+					+ " joins=" + this.joins + " joinRankDifferences=" + this.joinRankDifferences
+					+ " maxJoinRankDifference=" + this.maxJoinRankDifference
+					+ " splits=" + this.splits + " splitPathLength=" + this.splitPathLength;
+		}
+	}
+}
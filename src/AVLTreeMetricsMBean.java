@@ -0,0 +1,19 @@
+/**
+ *
+ * AVLTreeMetricsMBean
+ *
+ * The JMX management interface of AVLTreeMetrics: the counters of one tree, read only, and reset.
+ *
+ */
+
+public interface AVLTreeMetricsMBean {
+	public long getRotations(); //single rotations - a double rotation counts as 2
+	public long getPromotions(); //rank increments of a node
+	public long getDemotions(); //rank decrements of a node
+	public long getJoins(); //joins of two sub-trees, by join, split and the batch and set operations
+	public long getJoinRankDifferences(); //the sum of |rank difference| of the joined sub-trees
+	public long getMaxJoinRankDifference(); //the largest |rank difference| of a join
+	public long getSplits(); //calls of split
+	public long getSplitPathLength(); //the sum of the number of ancestors that split walked up through
+	public void reset(); //sets all the counters to 0
+}
@@ -0,0 +1,477 @@
+/**
+ *
+ * AbstractAVLTree
+ *
+ * The balancing part of the AVL trees that are specialized by their key and value types
+ * (IntAVLMap, IntIntAVLMap, IntLongAVLMap and the trees that extend them).
+ * Rotations, rebalancing, removal, split and join do not look at keys at all, so they are written once here
+ * on a node that only has the structure fields. The subclasses own the keys and the values,
+ * search the tree with their own key type and tell this class where to attach or what to remove.
+ * That code is generated from codegen/AVLCore.java.template, like the one of AbstractIndexedAVLTree,
+ * and it reaches the fields of the nodes through the accessors below.
+ *
+ * A missing child is null, and the height of null is -1. AVLTree keeps a shared virtual node of rank -1 and size 0
+ * in the place of a missing child instead, so the code here never writes to a node that is not real, and AVLTree
+ * uses the join (and the rebalancing and rotations under it) for its split and bulk operations.
+ * The nodes keep the size of their sub-tree.
+ *
+ */
+
+abstract class AbstractAVLTree<N extends AbstractAVLTree.Node<N>> {
+	N root; //A pointer to the root of the tree, null if the tree is empty
+	N min;  //A pointer to the node with the minimum key in the tree
+	N max;  //A pointer to the node with the maximum key in the tree
+	int ops; //The number of rebalancing operations (rank changes and rotations) since it was last reset
+
+	/*
+	 * The structure fields of a node. The subclasses add the key and the value fields.
+	 * A new node is a leaf: rank 0 and size 1.
+	 */
+	abstract static class Node<N extends Node<N>> {
+		N left;    //element in the left of this node
+		N right;   //element in the right of this node
+		N parent;  //element that is the parent of this node
+		int rank;  //the rank(=height) of the node
+		int size = 1; //the size of the sub-tree of the node(including himself)
+	}
+
+	//The height of a node, -1 for a missing node - O(1) time complexity
+	static int height(Node<?> node) {
+		return node == null ? -1 : node.rank;
+	}
+
+	//The size of the sub-tree of a node, 0 for a missing node - O(1) time complexity
+	static int size(Node<?> node) {
+		return node == null ? 0 : node.size;
+	}
+
+	//True if the node is a real node: not null and not the virtual node of AVLTree - O(1) time complexity
+	static boolean real(Node<?> node) {
+		return node != null && node.rank >= 0;
+	}
+
+	//The fields of a real node, as the shared code reads and writes them - O(1)
+	final N left(N x) { return x.left; }
+	final N right(N x) { return x.right; }
+	final N parent(N x) { return x.parent; }
+	final int rank(N x) { return x.rank; }
+	final void setLeft(N x, N v) { x.left = v; }
+	final void setRight(N x, N v) { x.right = v; }
+	final void setParent(N x, N v) { x.parent = v; }
+	final void setRank(N x, int v) { x.rank = v; }
+	final void setSize(N x, int v) { x.size = v; }
+
+	//Called on every rotation - O(1). AVLTree counts them into its metrics instead.
+	void rotated() {
+		this.ops++;
+	}
+
+	//Called when the rebalancing changes the rank of a node - O(1). A change by 2 counts as 2, as in AVLTree, which counts them into its metrics instead.
+	void reranked(int oldRank, int newRank) {
+		this.ops += Math.abs(newRank - oldRank);
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return this.root == null;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree - O(1) time complexity.
+	 */
+	public int size() {
+		return size(this.root);
+	}
+
+	//GENERATED FROM codegen/AVLCore.java.template - edit the template and run codegen/Generate.java
+	/*
+	 * Attaches the new leaf x as the left or right child of parent, where the search for its key ended (parent == null means the tree is empty).
+	 * Keeps min, max and the sizes of the ancestors, and rebalances the tree.
+	 * Returns the number of rebalancing operations, counted as AVLTree counts them. Time Complexity is O(log n).
+	 */
+	final int attach(N parent, N x, boolean left) {
+		if(parent == null) {
+			this.root = x;
+			this.min = x;
+			this.max = x;
+			return 0;
+		}
+		setParent(x, parent);
+		if(left) {
+			setLeft(parent, x);
+			if(parent == this.min)
+				this.min = x;
+		}
+		else {
+			setRight(parent, x);
+			if(parent == this.max)
+				this.max = x;
+		}
+		for(N a = parent; a != null; a = parent(a))
+			setSize(a, size(a) + 1);
+		this.ops = 0;
+		N top = rebalance(parent);
+		if(top != null)
+			this.root = top;
+		return this.ops;
+	}
+
+	/*
+	 * Unlinks the real node y from this tree. A node with 2 kids is replaced by its successor node (moved, not copied),
+	 * so the other nodes stay where they are. Keeps min, max and sizes, and rebalances the tree.
+	 * The node y is not freed - that is up to the subclass, which may still read its value.
+	 * Returns the number of rebalancing operations, counted as AVLTree counts them. Time Complexity is O(log n).
+	 */
+	final int remove(N y) {
+		if(y == this.min)
+			this.min = successor(y);
+		if(y == this.max)
+			this.max = predecessor(y);
+
+		N yl = left(y);
+		N yr = right(y);
+		N z; // the parent of the node that is removed physically - rebalancing starts from it
+		if(yl != null && yr != null) {
+			N succ = yr;
+			while(left(succ) != null)
+				succ = left(succ);
+			if(parent(succ) == y) { // the successor is the right child of y - it keeps its right sub-tree
+				z = succ;
+			}
+			else {
+				z = parent(succ);
+				N sr = right(succ);
+				setLeft(z, sr);
+				if(sr != null)
+					setParent(sr, z);
+				setRight(succ, yr);
+				setParent(yr, succ);
+			}
+			setLeft(succ, yl);
+			setParent(yl, succ);
+			setRank(succ, rank(y));
+			setSize(succ, size(y));
+			replaceChild(y, succ);
+		}
+		else {
+			z = parent(y);
+			replaceChild(y, yl != null ? yl : yr);
+		}
+		setLeft(y, null);
+		setRight(y, null);
+		setParent(y, null);
+
+		for(N a = z; a != null; a = parent(a))
+			setSize(a, size(a) - 1);
+		this.ops = 0;
+		if(z != null) {
+			N top = rebalance(z);
+			if(top != null)
+				this.root = top;
+		}
+		return this.ops;
+	}
+
+	//Puts x (may be missing) in the place of y under y's parent, or as the root - O(1)
+	private void replaceChild(N y, N x) {
+		N parent = parent(y);
+		if(x != null)
+			setParent(x, parent);
+		if(parent == null)
+			this.root = x;
+		else if(left(parent) == y)
+			setLeft(parent, x);
+		else
+			setRight(parent, x);
+	}
+
+	/*
+	 * Restores the AVL invariant from p up to the top, after one of its sub-trees grew or shrank by one level
+	 * (or, in join, after a sub-tree was replaced by one that is up to one level higher).
+	 * At each level the rank of the node is recomputed from its kids, and a single or double rotation is done when the kids differ by 2.
+	 * The loop stops as soon as the rank of a sub-tree does not change, as nothing above it changes then.
+	 * Returns the new top node if the loop reached it (it has no parent), or a missing node if it stopped below the top.
+	 * Time Complexity is O(log n), and no memory is allocated.
+	 */
+	final N rebalance(N p) {
+		while(p != null) {
+			int oldRank = rank(p);
+			N sub = fix(p);
+			if(parent(sub) == null)
+				return sub;
+			if(rank(sub) == oldRank)
+				return null;
+			p = parent(sub);
+		}
+		return null; // not reached
+	}
+
+	//Fixes one node and returns the root of its sub-tree afterwards - O(1)
+	private N fix(N p) {
+		int hl = height(left(p));
+		int hr = height(right(p));
+		if(hl - hr > 1) {
+			N l = left(p);
+			if(height(left(l)) < height(right(l))) // the double rotation case
+				rotateLeft(l);
+			return rotateRight(p);
+		}
+		if(hr - hl > 1) {
+			N r = right(p);
+			if(height(right(r)) < height(left(r))) // the symmetric double rotation case
+				rotateRight(r);
+			return rotateLeft(p);
+		}
+		int rank = Math.max(hl, hr) + 1;
+		if(rank != rank(p)) {
+			reranked(rank(p), rank);
+			setRank(p, rank);
+		}
+		return p;
+	}
+
+	/*
+	 * Rotates y with its left child x and returns x. The parent of y (if any) points to x afterwards.
+	 * The ranks and sizes of both nodes are recomputed from their kids, and their rank changes are reported. Time Complexity is O(1).
+	 */
+	final N rotateRight(N y) {
+		rotated();
+		N x = left(y);
+		N b = right(x);
+		setLeft(y, b);
+		if(real(b))
+			setParent(b, y);
+		N parent = parent(y);
+		setParent(x, parent);
+		if(parent != null) {
+			if(left(parent) == y)
+				setLeft(parent, x);
+			else
+				setRight(parent, x);
+		}
+		setRight(x, y);
+		setParent(y, x);
+		update(y);
+		update(x);
+		return x;
+	}
+
+	//The symmetric rotation - rotates x with its right child y and returns y. Time Complexity is O(1).
+	final N rotateLeft(N x) {
+		rotated();
+		N y = right(x);
+		N b = left(y);
+		setRight(x, b);
+		if(real(b))
+			setParent(b, x);
+		N parent = parent(x);
+		setParent(y, parent);
+		if(parent != null) {
+			if(left(parent) == x)
+				setLeft(parent, y);
+			else
+				setRight(parent, y);
+		}
+		setLeft(y, x);
+		setParent(x, y);
+		update(x);
+		update(y);
+		return y;
+	}
+
+	//Recomputes the rank and size of a rotated node from its kids, and reports a change of its rank - O(1)
+	private void update(N x) {
+		N l = left(x);
+		N r = right(x);
+		int rank = Math.max(height(l), height(r)) + 1;
+		if(rank != rank(x)) {
+			reranked(rank(x), rank);
+			setRank(x, rank);
+		}
+		setSize(x, size(l) + size(r) + 1);
+	}
+
+	/*
+	 * Joins the sub-trees l and r (roots without a parent, or missing) with the node x, where keys(l) < x < keys(r),
+	 * and returns the root of the joined sub-tree. It does not touch the fields of the tree object.
+	 * The higher tree is descended on its inner spine to the first node whose rank is at most the rank of the lower tree plus one,
+	 * x takes its place with it and the lower tree as kids, the sizes above x grow by the size of the lower tree plus one,
+	 * and the tree is rebalanced from there up.
+	 * Time Complexity is O(|rank(l) - rank(r)| + 1).
+	 */
+	final N join(N l, N x, N r) {
+		setParent(x, null);
+		int hl = height(l);
+		int hr = height(r);
+		if(hl > hr + 1) {
+			N p = null;
+			N c = l;
+			while(height(c) > hr + 1) {
+				p = c;
+				c = right(c);
+			}
+			link(x, c, r);
+			setRight(p, x);
+			setParent(x, p);
+			int add = size(r) + 1;
+			for(N a = p; a != null; a = parent(a))
+				setSize(a, size(a) + add);
+			N top = rebalance(p);
+			return top != null ? top : l;
+		}
+		if(hr > hl + 1) {
+			N p = null;
+			N c = r;
+			while(height(c) > hl + 1) {
+				p = c;
+				c = left(c);
+			}
+			link(x, l, c);
+			setLeft(p, x);
+			setParent(x, p);
+			int add = size(l) + 1;
+			for(N a = p; a != null; a = parent(a))
+				setSize(a, size(a) + add);
+			N top = rebalance(p);
+			return top != null ? top : r;
+		}
+		link(x, l, r);
+		return x;
+	}
+
+	//Makes l and r the kids of x and computes its rank and size - O(1). The old rank of x is not a rank of this tree, so it is not reported.
+	private void link(N x, N l, N r) {
+		setLeft(x, l);
+		if(real(l))
+			setParent(l, x);
+		setRight(x, r);
+		if(real(r))
+			setParent(r, x);
+		setRank(x, Math.max(height(l), height(r)) + 1);
+		setSize(x, size(l) + size(r) + 1);
+	}
+
+	/*
+	 * Joins the tree t and the node x into this tree. If high is true, keys() < x < keys(t), otherwise keys(t) < x < keys().
+	 * The tree t is empty afterwards. Returns the cost of the join, |rank() - rank(t)| + 1, as AVLTree.join does.
+	 * Time Complexity is O(|rank() - rank(t)| + 1).
+	 */
+	final int joinWith(N x, AbstractAVLTree<N> t, boolean high) {
+		int cost = Math.abs(height(this.root) - height(t.root)) + 1;
+		N lowMin = high ? this.min : t.min;
+		N highMax = high ? t.max : this.max;
+		this.root = high ? join(this.root, x, t.root) : join(t.root, x, this.root);
+		this.min = lowMin != null ? lowMin : x;
+		this.max = highMax != null ? highMax : x;
+		t.clear();
+		return cost;
+	}
+
+	/*
+	 * Splits this tree along the search path that ended at the node y into the empty trees low and high.
+	 * side == 0: y holds the split key and goes to neither tree; it is returned, cut from the tree and not freed.
+	 * side < 0: the split key is smaller than the key of y (and y has no left kid), so y goes to high.
+	 * side > 0: the split key is larger than the key of y (and y has no right kid), so y goes to low.
+	 * Going up from y, every ancestor that was left by its right kid is joined into low with its left sub-tree,
+	 * and every other ancestor is joined into high with its right sub-tree.
+	 * Returns y if side == 0, otherwise a missing node. This tree is empty afterwards.
+	 * Time Complexity is O(log n) as the joins telescope along the path.
+	 */
+	final N splitInto(N y, int side, AbstractAVLTree<N> low, AbstractAVLTree<N> high) {
+		// The extremes of both trees are known before splitting - O(log n)
+		N lowMax = side > 0 ? y : predecessor(y);
+		N highMin = side < 0 ? y : successor(y);
+		N lowMin = lowMax == null ? null : this.min;
+		N highMax = highMin == null ? null : this.max;
+
+		N p = parent(y);
+		boolean fromRight = p != null && right(p) == y;
+		N lowRoot = detach(left(y));
+		N highRoot = detach(right(y));
+		if(side < 0)
+			highRoot = join(null, y, highRoot);
+		else if(side > 0)
+			lowRoot = join(lowRoot, y, null);
+		else {
+			setLeft(y, null);
+			setRight(y, null);
+			setParent(y, null);
+		}
+
+		while(p != null) {
+			N up = parent(p);
+			boolean upFromRight = up != null && right(up) == p;
+			if(fromRight)
+				lowRoot = join(detach(left(p)), p, lowRoot);
+			else
+				highRoot = join(highRoot, p, detach(right(p)));
+			p = up;
+			fromRight = upFromRight;
+		}
+
+		low.root = lowRoot;
+		low.min = lowMin;
+		low.max = lowMax;
+		high.root = highRoot;
+		high.min = highMin;
+		high.max = highMax;
+		this.clear();
+		return side == 0 ? y : null;
+	}
+
+	//Cuts a sub-tree from its parent and returns it - O(1)
+	private N detach(N x) {
+		if(x != null)
+			setParent(x, null);
+		return x;
+	}
+
+	//Makes the tree empty - O(1)
+	final void clear() {
+		this.root = null;
+		this.min = null;
+		this.max = null;
+	}
+	//END OF GENERATED CODE
+
+	/*
+	 * Returns the node with the next key after the given node, or null if it is the maximum.
+	 * Time complexity is O(log n) at the worst case, and O(1) amortized over an in-order walk.
+	 */
+	static <N extends Node<N>> N successor(N node) {
+		if(node.right != null) {
+			node = node.right;
+			while(node.left != null)
+				node = node.left;
+			return node;
+		}
+		N parent = node.parent;
+		while(parent != null && node == parent.right) {
+			node = parent;
+			parent = parent.parent;
+		}
+		return parent;
+	}
+
+	//The symmetric function of successor - O(log n) at the worst case, and O(1) amortized over an in-order walk.
+	static <N extends Node<N>> N predecessor(N node) {
+		if(node.left != null) {
+			node = node.left;
+			while(node.right != null)
+				node = node.right;
+			return node;
+		}
+		N parent = node.parent;
+		while(parent != null && node == parent.left) {
+			node = parent;
+			parent = parent.parent;
+		}
+		return parent;
+	}
+}
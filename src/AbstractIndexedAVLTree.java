@@ -0,0 +1,556 @@
+/**
+ *
+ * AbstractIndexedAVLTree
+ *
+ * The balancing part of the AVL trees whose nodes are not Java objects but records in a node storage,
+ * named by an int index (ArrayAVLTree keeps them in parallel int arrays).
+ * The algorithms are the ones of AbstractAVLTree, generated from the same template (codegen/AVLCore.java.template)
+ * for int indexes: the subclasses only say how the fields of a record are read and written, and own the values.
+ *
+ * The index NIL (0) is the virtual leaf of all the trees of a storage: its rank is -1, its size is 0
+ * and it is never written, so every write of a parent pointer checks that the child is real.
+ * The keys are distinct ints, and a missing root, minimum or maximum is NIL.
+ *
+ */
+
+abstract class AbstractIndexedAVLTree {
+	static final int NIL = 0; //The index of the virtual leaf
+
+	int root = NIL; //The index of the root of the tree
+	int min = NIL;  //The index of the node with the minimum key in the tree
+	int max = NIL;  //The index of the node with the maximum key in the tree
+	int ops;        //The number of rebalancing operations (rank changes and rotations) since it was last reset
+
+	//The fields of the node records - the storage of the subclass. The fields of NIL are read only.
+	abstract int key(int x);
+	abstract int left(int x);
+	abstract int right(int x);
+	abstract int parent(int x);
+	abstract int rank(int x);
+	abstract int size(int x);
+	abstract void setLeft(int x, int v);
+	abstract void setRight(int x, int v);
+	abstract void setParent(int x, int v);
+	abstract void setRank(int x, int v);
+	abstract void setSize(int x, int v);
+
+	//The height of a node, -1 for NIL - O(1)
+	final int height(int x) {
+		return rank(x);
+	}
+
+	//True if x is a real node and not NIL - O(1)
+	static boolean real(int x) {
+		return x != NIL;
+	}
+
+	//Called on every rotation - O(1)
+	void rotated() {
+		this.ops++;
+	}
+
+	//Called when the rebalancing changes the rank of a node - O(1). A change by 2 counts as 2, as in AVLTree.
+	void reranked(int oldRank, int newRank) {
+		this.ops += Math.abs(newRank - oldRank);
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return this.root == NIL;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of nodes in the tree - O(1) time complexity.
+	 */
+	public int size() {
+		return size(this.root);
+	}
+
+	/*
+	 * Searches for the key k with a single descent from the root, reading the key of each node once.
+	 * Returns the node with key k if it exists, otherwise the last node on the search path, or NIL if the tree is empty.
+	 * Time complexity is O(log n).
+	 */
+	final int descend(int k) {
+		int x = this.root;
+		int last = NIL;
+		while(x != NIL) {
+			last = x;
+			int key = key(x);
+			if(k < key)
+				x = left(x);
+			else if(k > key)
+				x = right(x);
+			else
+				return x;
+		}
+		return last;
+	}
+
+	//Returns the node with key k, or NIL if there is no such node - O(log n)
+	final int find(int k) {
+		int x = descend(k);
+		return x != NIL && key(x) == k ? x : NIL;
+	}
+
+	/**
+	 * public boolean containsKey(int k)
+	 *
+	 * returns true if and only if an item with key k exists in the tree - O(log n)
+	 */
+	public boolean containsKey(int k) {
+		return find(k) != NIL;
+	}
+
+	/**
+	 * public int minKey()
+	 *
+	 * Returns the smallest key in the tree, or -1 if the tree is empty - O(1)
+	 */
+	public int minKey() {
+		return this.min == NIL ? -1 : key(this.min);
+	}
+
+	/**
+	 * public int maxKey()
+	 *
+	 * Returns the largest key in the tree, or -1 if the tree is empty - O(1)
+	 */
+	public int maxKey() {
+		return this.max == NIL ? -1 : key(this.max);
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	//An in-order walk from the minimum with the successor function - O(n) time and no recursion.
+	public int[] keysToArray() {
+		int[] arr = new int[size()];
+		int i = 0;
+		for(int x = this.min; x != NIL; x = successor(x))
+			arr[i++] = key(x);
+		return arr;
+	}
+
+	/*
+	 * Checks the precondition of join: keys() < key < keys(t) or keys(t) < key < keys(), and returns true in the first case.
+	 * Time Complexity is O(1) as the minimum and maximum of both trees are maintained.
+	 */
+	final boolean joinsAbove(int key, AbstractIndexedAVLTree t) {
+		if((this.empty() || key(this.max) < key) && (t.empty() || t.key(t.min) > key))
+			return true;
+		if((this.empty() || key(this.min) > key) && (t.empty() || t.key(t.max) < key))
+			return false;
+		throw new IllegalArgumentException("the key " + key + " does not separate the keys of the two trees");
+	}
+
+	/*
+	 * Splits this tree by the key k into the empty trees low and high of the same storage: keys(low) < k < keys(high).
+	 * Returns the node with key k, which goes to neither tree and is not freed, or NIL if there is none.
+	 * This tree is empty afterwards. Time Complexity is O(log n).
+	 */
+	final int splitInto(int k, AbstractIndexedAVLTree low, AbstractIndexedAVLTree high) {
+		int y = descend(k);
+		if(y == NIL)
+			return NIL;
+		int yk = key(y);
+		return splitInto(y, k < yk ? -1 : k > yk ? 1 : 0, low, high);
+	}
+
+	//GENERATED FROM codegen/AVLCore.java.template - edit the template and run codegen/Generate.java
+	/*
+	 * Attaches the new leaf x as the left or right child of parent, where the search for its key ended (parent == NIL means the tree is empty).
+	 * Keeps min, max and the sizes of the ancestors, and rebalances the tree.
+	 * Returns the number of rebalancing operations, counted as AVLTree counts them. Time Complexity is O(log n).
+	 */
+	final int attach(int parent, int x, boolean left) {
+		if(parent == NIL) {
+			this.root = x;
+			this.min = x;
+			this.max = x;
+			return 0;
+		}
+		setParent(x, parent);
+		if(left) {
+			setLeft(parent, x);
+			if(parent == this.min)
+				this.min = x;
+		}
+		else {
+			setRight(parent, x);
+			if(parent == this.max)
+				this.max = x;
+		}
+		for(int a = parent; a != NIL; a = parent(a))
+			setSize(a, size(a) + 1);
+		this.ops = 0;
+		int top = rebalance(parent);
+		if(top != NIL)
+			this.root = top;
+		return this.ops;
+	}
+
+	/*
+	 * Unlinks the real node y from this tree. A node with 2 kids is replaced by its successor node (moved, not copied),
+	 * so the other nodes stay where they are. Keeps min, max and sizes, and rebalances the tree.
+	 * The node y is not freed - that is up to the subclass, which may still read its value.
+	 * Returns the number of rebalancing operations, counted as AVLTree counts them. Time Complexity is O(log n).
+	 */
+	final int remove(int y) {
+		if(y == this.min)
+			this.min = successor(y);
+		if(y == this.max)
+			this.max = predecessor(y);
+
+		int yl = left(y);
+		int yr = right(y);
+		int z; // the parent of the node that is removed physically - rebalancing starts from it
+		if(yl != NIL && yr != NIL) {
+			int succ = yr;
+			while(left(succ) != NIL)
+				succ = left(succ);
+			if(parent(succ) == y) { // the successor is the right child of y - it keeps its right sub-tree
+				z = succ;
+			}
+			else {
+				z = parent(succ);
+				int sr = right(succ);
+				setLeft(z, sr);
+				if(sr != NIL)
+					setParent(sr, z);
+				setRight(succ, yr);
+				setParent(yr, succ);
+			}
+			setLeft(succ, yl);
+			setParent(yl, succ);
+			setRank(succ, rank(y));
+			setSize(succ, size(y));
+			replaceChild(y, succ);
+		}
+		else {
+			z = parent(y);
+			replaceChild(y, yl != NIL ? yl : yr);
+		}
+		setLeft(y, NIL);
+		setRight(y, NIL);
+		setParent(y, NIL);
+
+		for(int a = z; a != NIL; a = parent(a))
+			setSize(a, size(a) - 1);
+		this.ops = 0;
+		if(z != NIL) {
+			int top = rebalance(z);
+			if(top != NIL)
+				this.root = top;
+		}
+		return this.ops;
+	}
+
+	//Puts x (may be missing) in the place of y under y's parent, or as the root - O(1)
+	private void replaceChild(int y, int x) {
+		int parent = parent(y);
+		if(x != NIL)
+			setParent(x, parent);
+		if(parent == NIL)
+			this.root = x;
+		else if(left(parent) == y)
+			setLeft(parent, x);
+		else
+			setRight(parent, x);
+	}
+
+	/*
+	 * Restores the AVL invariant from p up to the top, after one of its sub-trees grew or shrank by one level
+	 * (or, in join, after a sub-tree was replaced by one that is up to one level higher).
+	 * At each level the rank of the node is recomputed from its kids, and a single or double rotation is done when the kids differ by 2.
+	 * The loop stops as soon as the rank of a sub-tree does not change, as nothing above it changes then.
+	 * Returns the new top node if the loop reached it (it has no parent), or a missing node if it stopped below the top.
+	 * Time Complexity is O(log n), and no memory is allocated.
+	 */
+	final int rebalance(int p) {
+		while(p != NIL) {
+			int oldRank = rank(p);
+			int sub = fix(p);
+			if(parent(sub) == NIL)
+				return sub;
+			if(rank(sub) == oldRank)
+				return NIL;
+			p = parent(sub);
+		}
+		return NIL; // not reached
+	}
+
+	//Fixes one node and returns the root of its sub-tree afterwards - O(1)
+	private int fix(int p) {
+		int hl = height(left(p));
+		int hr = height(right(p));
+		if(hl - hr > 1) {
+			int l = left(p);
+			if(height(left(l)) < height(right(l))) // the double rotation case
+				rotateLeft(l);
+			return rotateRight(p);
+		}
+		if(hr - hl > 1) {
+			int r = right(p);
+			if(height(right(r)) < height(left(r))) // the symmetric double rotation case
+				rotateRight(r);
+			return rotateLeft(p);
+		}
+		int rank = Math.max(hl, hr) + 1;
+		if(rank != rank(p)) {
+			reranked(rank(p), rank);
+			setRank(p, rank);
+		}
+		return p;
+	}
+
+	/*
+	 * Rotates y with its left child x and returns x. The parent of y (if any) points to x afterwards.
+	 * The ranks and sizes of both nodes are recomputed from their kids, and their rank changes are reported. Time Complexity is O(1).
+	 */
+	final int rotateRight(int y) {
+		rotated();
+		int x = left(y);
+		int b = right(x);
+		setLeft(y, b);
+		if(real(b))
+			setParent(b, y);
+		int parent = parent(y);
+		setParent(x, parent);
+		if(parent != NIL) {
+			if(left(parent) == y)
+				setLeft(parent, x);
+			else
+				setRight(parent, x);
+		}
+		setRight(x, y);
+		setParent(y, x);
+		update(y);
+		update(x);
+		return x;
+	}
+
+	//The symmetric rotation - rotates x with its right child y and returns y. Time Complexity is O(1).
+	final int rotateLeft(int x) {
+		rotated();
+		int y = right(x);
+		int b = left(y);
+		setRight(x, b);
+		if(real(b))
+			setParent(b, x);
+		int parent = parent(x);
+		setParent(y, parent);
+		if(parent != NIL) {
+			if(left(parent) == x)
+				setLeft(parent, y);
+			else
+				setRight(parent, y);
+		}
+		setLeft(y, x);
+		setParent(x, y);
+		update(x);
+		update(y);
+		return y;
+	}
+
+	//Recomputes the rank and size of a rotated node from its kids, and reports a change of its rank - O(1)
+	private void update(int x) {
+		int l = left(x);
+		int r = right(x);
+		int rank = Math.max(height(l), height(r)) + 1;
+		if(rank != rank(x)) {
+			reranked(rank(x), rank);
+			setRank(x, rank);
+		}
+		setSize(x, size(l) + size(r) + 1);
+	}
+
+	/*
+	 * Joins the sub-trees l and r (roots without a parent, or missing) with the node x, where keys(l) < x < keys(r),
+	 * and returns the root of the joined sub-tree. It does not touch the fields of the tree object.
+	 * The higher tree is descended on its inner spine to the first node whose rank is at most the rank of the lower tree plus one,
+	 * x takes its place with it and the lower tree as kids, the sizes above x grow by the size of the lower tree plus one,
+	 * and the tree is rebalanced from there up.
+	 * Time Complexity is O(|rank(l) - rank(r)| + 1).
+	 */
+	final int join(int l, int x, int r) {
+		setParent(x, NIL);
+		int hl = height(l);
+		int hr = height(r);
+		if(hl > hr + 1) {
+			int p = NIL;
+			int c = l;
+			while(height(c) > hr + 1) {
+				p = c;
+				c = right(c);
+			}
+			link(x, c, r);
+			setRight(p, x);
+			setParent(x, p);
+			int add = size(r) + 1;
+			for(int a = p; a != NIL; a = parent(a))
+				setSize(a, size(a) + add);
+			int top = rebalance(p);
+			return top != NIL ? top : l;
+		}
+		if(hr > hl + 1) {
+			int p = NIL;
+			int c = r;
+			while(height(c) > hl + 1) {
+				p = c;
+				c = left(c);
+			}
+			link(x, l, c);
+			setLeft(p, x);
+			setParent(x, p);
+			int add = size(l) + 1;
+			for(int a = p; a != NIL; a = parent(a))
+				setSize(a, size(a) + add);
+			int top = rebalance(p);
+			return top != NIL ? top : r;
+		}
+		link(x, l, r);
+		return x;
+	}
+
+	//Makes l and r the kids of x and computes its rank and size - O(1). The old rank of x is not a rank of this tree, so it is not reported.
+	private void link(int x, int l, int r) {
+		setLeft(x, l);
+		if(real(l))
+			setParent(l, x);
+		setRight(x, r);
+		if(real(r))
+			setParent(r, x);
+		setRank(x, Math.max(height(l), height(r)) + 1);
+		setSize(x, size(l) + size(r) + 1);
+	}
+
+	/*
+	 * Joins the tree t and the node x into this tree. If high is true, keys() < x < keys(t), otherwise keys(t) < x < keys().
+	 * The tree t is empty afterwards. Returns the cost of the join, |rank() - rank(t)| + 1, as AVLTree.join does.
+	 * Time Complexity is O(|rank() - rank(t)| + 1).
+	 */
+	final int joinWith(int x, AbstractIndexedAVLTree t, boolean high) {
+		int cost = Math.abs(height(this.root) - height(t.root)) + 1;
+		int lowMin = high ? this.min : t.min;
+		int highMax = high ? t.max : this.max;
+		this.root = high ? join(this.root, x, t.root) : join(t.root, x, this.root);
+		this.min = lowMin != NIL ? lowMin : x;
+		this.max = highMax != NIL ? highMax : x;
+		t.clear();
+		return cost;
+	}
+
+	/*
+	 * Splits this tree along the search path that ended at the node y into the empty trees low and high.
+	 * side == 0: y holds the split key and goes to neither tree; it is returned, cut from the tree and not freed.
+	 * side < 0: the split key is smaller than the key of y (and y has no left kid), so y goes to high.
+	 * side > 0: the split key is larger than the key of y (and y has no right kid), so y goes to low.
+	 * Going up from y, every ancestor that was left by its right kid is joined into low with its left sub-tree,
+	 * and every other ancestor is joined into high with its right sub-tree.
+	 * Returns y if side == 0, otherwise a missing node. This tree is empty afterwards.
+	 * Time Complexity is O(log n) as the joins telescope along the path.
+	 */
+	final int splitInto(int y, int side, AbstractIndexedAVLTree low, AbstractIndexedAVLTree high) {
+		// The extremes of both trees are known before splitting - O(log n)
+		int lowMax = side > 0 ? y : predecessor(y);
+		int highMin = side < 0 ? y : successor(y);
+		int lowMin = lowMax == NIL ? NIL : this.min;
+		int highMax = highMin == NIL ? NIL : this.max;
+
+		int p = parent(y);
+		boolean fromRight = p != NIL && right(p) == y;
+		int lowRoot = detach(left(y));
+		int highRoot = detach(right(y));
+		if(side < 0)
+			highRoot = join(NIL, y, highRoot);
+		else if(side > 0)
+			lowRoot = join(lowRoot, y, NIL);
+		else {
+			setLeft(y, NIL);
+			setRight(y, NIL);
+			setParent(y, NIL);
+		}
+
+		while(p != NIL) {
+			int up = parent(p);
+			boolean upFromRight = up != NIL && right(up) == p;
+			if(fromRight)
+				lowRoot = join(detach(left(p)), p, lowRoot);
+			else
+				highRoot = join(highRoot, p, detach(right(p)));
+			p = up;
+			fromRight = upFromRight;
+		}
+
+		low.root = lowRoot;
+		low.min = lowMin;
+		low.max = lowMax;
+		high.root = highRoot;
+		high.min = highMin;
+		high.max = highMax;
+		this.clear();
+		return side == 0 ? y : NIL;
+	}
+
+	//Cuts a sub-tree from its parent and returns it - O(1)
+	private int detach(int x) {
+		if(x != NIL)
+			setParent(x, NIL);
+		return x;
+	}
+
+	//Makes the tree empty - O(1)
+	final void clear() {
+		this.root = NIL;
+		this.min = NIL;
+		this.max = NIL;
+	}
+	//END OF GENERATED CODE
+
+	/*
+	 * Returns the node with the next key after x, or NIL if it is the maximum.
+	 * Time complexity is O(log n) at the worst case, and O(1) amortized over an in-order walk.
+	 */
+	final int successor(int x) {
+		int r = right(x);
+		if(r != NIL) {
+			x = r;
+			while(left(x) != NIL)
+				x = left(x);
+			return x;
+		}
+		int parent = parent(x);
+		while(parent != NIL && x == right(parent)) {
+			x = parent;
+			parent = parent(parent);
+		}
+		return parent;
+	}
+
+	//The symmetric function of successor - O(log n) at the worst case, and O(1) amortized over an in-order walk.
+	final int predecessor(int x) {
+		int l = left(x);
+		if(l != NIL) {
+			x = l;
+			while(right(x) != NIL)
+				x = right(x);
+			return x;
+		}
+		int parent = parent(x);
+		while(parent != NIL && x == left(parent)) {
+			x = parent;
+			parent = parent(parent);
+		}
+		return parent;
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ *
+ * AbstractIntAVLTree
+ *
+ * The int-key layer of the specialized AVL trees: searching by a primitive int key,
+ * and the key based operations (containsKey, minKey, maxKey, keysToArray, split) that do not depend on the value type.
+ * The value type is added by the subclasses (IntAVLMap, IntIntAVLMap, IntLongAVLMap).
+ *
+ */
+
+abstract class AbstractIntAVLTree<N extends AbstractIntAVLTree.IntNode<N>> extends AbstractAVLTree<N> {
+
+	//A node with a primitive int key. The key of a node never changes.
+	abstract static class IntNode<N extends IntNode<N>> extends AbstractAVLTree.Node<N> {
+		final int key;
+
+		IntNode(int key) {
+			this.key = key;
+		}
+	}
+
+	/*
+	 * Searches for the key k with a single descent from the root, reading the key of each node once.
+	 * Returns the node with key k if it exists, otherwise the last node on the search path
+	 * (where a node with key k should be attached), or null if the tree is empty.
+	 * The caller tells the two cases apart by comparing the key of the returned node with k.
+	 * Time complexity is O(log n).
+	 */
+	final N descend(int k) {
+		N node = this.root;
+		N last = null;
+		while(node != null) {
+			last = node;
+			int key = node.key;
+			if(k < key)
+				node = node.left;
+			else if(k > key)
+				node = node.right;
+			else
+				return node;
+		}
+		return last;
+	}
+
+	//Returns the node with key k, or null if there is no such node - O(log n)
+	final N find(int k) {
+		N node = descend(k);
+		return node != null && node.key == k ? node : null;
+	}
+
+	/*
+	 * Attaches a new node under the node that descend returned for its key (null if the tree is empty) - O(log n).
+	 */
+	final void attachAt(N last, N node) {
+		attach(last, node, last != null && node.key < last.key);
+	}
+
+	/**
+	 * public boolean containsKey(int k)
+	 *
+	 * returns true if and only if an item with key k exists in the tree - O(log n)
+	 */
+	public boolean containsKey(int k) {
+		return find(k) != null;
+	}
+
+	/**
+	 * public int minKey()
+	 *
+	 * Returns the smallest key in the tree, or -1 if the tree is empty - O(1)
+	 */
+	public int minKey() {
+		return this.min == null ? -1 : this.min.key;
+	}
+
+	/**
+	 * public int maxKey()
+	 *
+	 * Returns the largest key in the tree, or -1 if the tree is empty - O(1)
+	 */
+	public int maxKey() {
+		return this.max == null ? -1 : this.max.key;
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	//An in-order walk from the minimum with the successor function - O(n) time and no recursion.
+	public int[] keysToArray() {
+		int[] arr = new int[size()];
+		int i = 0;
+		for(N node = this.min; node != null; node = successor(node))
+			arr[i++] = node.key;
+		return arr;
+	}
+
+	/*
+	 * Splits this tree by the key k into the empty trees low and high: keys(low) < k < keys(high).
+	 * The item with key k, if there is one, goes to neither tree. This tree is empty afterwards.
+	 * Time Complexity is O(log n).
+	 */
+	final void splitInto(int k, AbstractIntAVLTree<N> low, AbstractIntAVLTree<N> high) {
+		N last = descend(k);
+		if(last == null)
+			return;
+		splitInto(last, Integer.compare(k, last.key), low, high);
+	}
+
+	/*
+	 * Checks the precondition of join: keys() < key < keys(t) or keys(t) < key < keys(), and returns true in the first case.
+	 * Time Complexity is O(1) as the minimum and maximum of both trees are maintained.
+	 */
+	final boolean joinsAbove(int key, AbstractIntAVLTree<N> t) {
+		if((this.empty() || this.max.key < key) && (t.empty() || t.min.key > key))
+			return true;
+		if((this.empty() || this.min.key > key) && (t.empty() || t.max.key < key))
+			return false;
+		throw new IllegalArgumentException("the key " + key + " does not separate the keys of the two trees");
+	}
+}
@@ -0,0 +1,242 @@
+import java.util.Arrays;
+
+/**
+ *
+ * ArrayAVLTree
+ *
+ * An AVL tree with distinct int keys and String info, like AVLTree, whose nodes are not objects:
+ * a node is an index into parallel arrays (left, right, parent, key, rank, size and info) of a node storage.
+ * A node takes 24 bytes of int fields and one info reference, there is no object header per node,
+ * and a search reads neighbouring array slots instead of chasing pointers across the heap.
+ *
+ * The slots of deleted nodes are kept on a free list and reused by later inserts.
+ * The trees that split returns use the storage of the split tree, and join only joins trees of the same storage,
+ * so both stay O(log n) without copying nodes. A storage is not thread safe, and so neither are its trees.
+ *
+ */
+
+public class ArrayAVLTree extends AbstractIndexedAVLTree {
+	final Nodes nodes; //The storage of the nodes, shared with the trees that were split from this one
+
+	/*
+	 * The node storage: parallel arrays indexed by the node index.
+	 * Slot 0 is the virtual leaf NIL (rank -1, size 0). The free slots are linked through their left field.
+	 */
+	static final class Nodes {
+		int[] left;
+		int[] right;
+		int[] parent;
+		int[] key;
+		int[] rank;
+		int[] size;
+		String[] info;
+		int used = 1;  //The number of slots that were ever used, including NIL
+		int free = NIL; //The first slot of the free list, NIL if the list is empty
+
+		Nodes(int capacity) {
+			capacity = Math.max(capacity + 1, 2);
+			this.left = new int[capacity];
+			this.right = new int[capacity];
+			this.parent = new int[capacity];
+			this.key = new int[capacity];
+			this.rank = new int[capacity];
+			this.size = new int[capacity];
+			this.info = new String[capacity];
+			this.rank[NIL] = -1;
+		}
+
+		//Returns a leaf with key k and info i, from the free list or from the unused slots - amortized O(1)
+		int allocate(int k, String i) {
+			int x = this.free;
+			if(x != NIL)
+				this.free = this.left[x];
+			else {
+				if(this.used == this.key.length)
+					grow();
+				x = this.used++;
+			}
+			this.left[x] = NIL;
+			this.right[x] = NIL;
+			this.parent[x] = NIL;
+			this.key[x] = k;
+			this.rank[x] = 0;
+			this.size[x] = 1;
+			this.info[x] = i;
+			return x;
+		}
+
+		//Puts the slot of a removed node on the free list - O(1)
+		void release(int x) {
+			this.info[x] = null;
+			this.left[x] = this.free;
+			this.free = x;
+		}
+
+		//Doubles the capacity of all the arrays - O(n), amortized O(1) per allocation
+		private void grow() {
+			int capacity = this.key.length * 2;
+			this.left = Arrays.copyOf(this.left, capacity);
+			this.right = Arrays.copyOf(this.right, capacity);
+			this.parent = Arrays.copyOf(this.parent, capacity);
+			this.key = Arrays.copyOf(this.key, capacity);
+			this.rank = Arrays.copyOf(this.rank, capacity);
+			this.size = Arrays.copyOf(this.size, capacity);
+			this.info = Arrays.copyOf(this.info, capacity);
+		}
+	}
+
+	//Builds an empty tree with a new storage of the default capacity - O(1)
+	public ArrayAVLTree() {
+		this(16);
+	}
+
+	//Builds an empty tree with a new storage for the given number of nodes, which grows as needed - O(capacity)
+	public ArrayAVLTree(int capacity) {
+		if(capacity < 0)
+			throw new IllegalArgumentException("negative capacity: " + capacity);
+		this.nodes = new Nodes(capacity);
+	}
+
+	//Builds an empty tree that shares the storage of the given tree, so the two trees can be joined - O(1)
+	public ArrayAVLTree(ArrayAVLTree sibling) {
+		this.nodes = sibling.nodes;
+	}
+
+	final int key(int x) { return this.nodes.key[x]; }
+	final int left(int x) { return this.nodes.left[x]; }
+	final int right(int x) { return this.nodes.right[x]; }
+	final int parent(int x) { return this.nodes.parent[x]; }
+	final int rank(int x) { return this.nodes.rank[x]; }
+	final int size(int x) { return this.nodes.size[x]; }
+	final void setLeft(int x, int v) { this.nodes.left[x] = v; }
+	final void setRight(int x, int v) { this.nodes.right[x] = v; }
+	final void setParent(int x, int v) { this.nodes.parent[x] = v; }
+	final void setRank(int x, int v) { this.nodes.rank[x] = v; }
+	final void setSize(int x, int v) { this.nodes.size[x] = v; }
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	//The descent reads the arrays directly, without the accessors - O(log n).
+	public String search(int k) {
+		Nodes s = this.nodes;
+		int[] keys = s.key;
+		int x = this.root;
+		while(x != NIL) {
+			int key = keys[x];
+			if(k < key)
+				x = s.left[x];
+			else if(k > key)
+				x = s.right[x];
+			else
+				return s.info[x];
+		}
+		return null;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the AVL tree.
+	 * the tree must remain valid (keep its invariants).
+	 * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+	 * They are counted as in AVLTree.insert, so both trees return the same number for the same keys.
+	 * returns -1 if an item with key k already exists in the tree.
+	 */
+	//A single descent and one slot of the storage - O(log n).
+	public int insert(int k, String i) {
+		int last = descend(k);
+		if(last != NIL && key(last) == k)
+			return -1;
+		return attach(last, this.nodes.allocate(k, i), last != NIL && k < key(last));
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the binary tree, if it is there;
+	 * the tree must remain valid (keep its invariants).
+	 * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+	 * They are counted as in AVLTree.delete.
+	 * returns -1 if an item with key k was not found in the tree.
+	 */
+	//The slot of the node goes back to the free list - O(log n).
+	public int delete(int k) {
+		int y = find(k);
+		if(y == NIL)
+			return -1;
+		int ops = remove(y);
+		this.nodes.release(y);
+		return ops;
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty - O(1)
+	 */
+	public String min() {
+		return this.nodes.info[this.min];
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty - O(1)
+	 */
+	public String max() {
+		return this.nodes.info[this.max];
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	//An in-order walk from the minimum - O(n) time.
+	public String[] infoToArray() {
+		String[] arr = new String[size()];
+		int i = 0;
+		for(int x = this.min; x != NIL; x = successor(x))
+			arr[i++] = this.nodes.info[x];
+		return arr;
+	}
+
+	/**
+	 * public ArrayAVLTree[] split(int x)
+	 *
+	 * splits the tree into 2 trees according to the key x.
+	 * Returns an array [t1, t2] with two AVL trees of the storage of this tree. keys(t1) < x < keys(t2).
+	 * The item with key x (if there is one) is in neither tree, and this tree is empty afterwards.
+	 */
+	//Time complexity is O(log n). The slot of the item with key x goes back to the free list.
+	public ArrayAVLTree[] split(int x) {
+		ArrayAVLTree[] ret = { new ArrayAVLTree(this), new ArrayAVLTree(this) };
+		int y = splitInto(x, ret[0], ret[1]);
+		if(y != NIL)
+			this.nodes.release(y);
+		return ret;
+	}
+
+	/**
+	 * public int join(int k, String i, ArrayAVLTree t)
+	 *
+	 * joins the item (k, i) and the tree t, of the storage of this tree, into this tree. t is empty afterwards.
+	 * precondition: keys() < k < keys(t) or keys(t) < k < keys(), otherwise IllegalArgumentException is thrown.
+	 * returns the complexity of the operation (|tree.rank - t.rank| + 1).
+	 */
+	//Time complexity is O(|rank() - rank(t)| + 1).
+	public int join(int k, String i, ArrayAVLTree t) {
+		if(t.nodes != this.nodes)
+			throw new IllegalArgumentException("the trees do not share their node storage");
+		boolean high = joinsAbove(k, t);
+		return joinWith(this.nodes.allocate(k, i), t, high);
+	}
+}
@@ -0,0 +1,208 @@
+import java.util.Comparator;
+
+/**
+ *
+ * ComparatorAVLTree
+ *
+ * An AVL tree map with distinct keys of any type K, ordered by a Comparator (or by their natural ordering),
+ * for composite keys that do not fit in a primitive. Like the other specialized trees it keeps the sub-tree sizes,
+ * and supports split and join in O(log n).
+ *
+ */
+
+public class ComparatorAVLTree<K, V> extends AbstractAVLTree<ComparatorAVLTree.Entry<K, V>> {
+	final Comparator<? super K> comparator; //The order of the keys
+
+	//A node of the tree - a key, a value and the structure fields
+	static final class Entry<K, V> extends AbstractAVLTree.Node<Entry<K, V>> {
+		final K key;
+		V value;
+
+		Entry(K key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	//Builds an empty tree that orders its keys by the given comparator - O(1)
+	public ComparatorAVLTree(Comparator<? super K> comparator) {
+		if(comparator == null)
+			throw new NullPointerException("comparator");
+		this.comparator = comparator;
+	}
+
+	/*
+	 * Builds an empty tree that orders its keys by their natural ordering.
+	 * The keys must implement Comparable, otherwise the first comparison throws a ClassCastException - O(1)
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K extends Comparable<? super K>, V> ComparatorAVLTree<K, V> naturalOrder() {
+		return new ComparatorAVLTree<K, V>((Comparator<? super K>) Comparator.naturalOrder());
+	}
+
+	/*
+	 * Searches for the key k with a single descent from the root, comparing once per node.
+	 * Returns the node with key k if it exists, otherwise the last node on the search path, or null if the tree is empty.
+	 * Time complexity is O(log n) comparisons.
+	 */
+	final Entry<K, V> descend(K k) {
+		Entry<K, V> node = this.root;
+		Entry<K, V> last = null;
+		while(node != null) {
+			last = node;
+			int cmp = this.comparator.compare(k, node.key);
+			if(cmp < 0)
+				node = node.left;
+			else if(cmp > 0)
+				node = node.right;
+			else
+				return node;
+		}
+		return last;
+	}
+
+	//Returns the node with key k, or null if there is no such node - O(log n)
+	final Entry<K, V> find(K k) {
+		Entry<K, V> node = descend(k);
+		return node != null && this.comparator.compare(k, node.key) == 0 ? node : null;
+	}
+
+	/**
+	 * public boolean containsKey(K k)
+	 *
+	 * returns true if and only if an item with key k exists in the tree - O(log n)
+	 */
+	public boolean containsKey(K k) {
+		return find(k) != null;
+	}
+
+	/**
+	 * public V get(K k)
+	 *
+	 * returns the value of the item with key k if it exists in the tree, otherwise returns null.
+	 */
+	//Time complexity is O(log n).
+	public V get(K k) {
+		Entry<K, V> node = find(k);
+		return node == null ? null : node.value;
+	}
+
+	/**
+	 * public V put(K k, V v)
+	 *
+	 * Sets the value of the key k to v, inserting a new item if there is no item with key k.
+	 * Returns the previous value of k, or null if there was no item with key k.
+	 */
+	//A single descent finds the node or the place to attach a new one - O(log n).
+	public V put(K k, V v) {
+		Entry<K, V> last = descend(k);
+		int cmp = last == null ? 0 : this.comparator.compare(k, last.key);
+		if(last != null && cmp == 0) {
+			V old = last.value;
+			last.value = v;
+			return old;
+		}
+		attach(last, new Entry<K, V>(k, v), cmp < 0);
+		return null;
+	}
+
+	/**
+	 * public V remove(K k)
+	 *
+	 * Removes the item with key k if it is there.
+	 * Returns its value, or null if there was no item with key k.
+	 */
+	//Time complexity is O(log n).
+	public V remove(K k) {
+		Entry<K, V> node = find(k);
+		if(node == null)
+			return null;
+		remove(node);
+		return node.value;
+	}
+
+	/**
+	 * public K minKey()
+	 *
+	 * Returns the smallest key in the tree, or null if the tree is empty - O(1)
+	 */
+	public K minKey() {
+		return this.min == null ? null : this.min.key;
+	}
+
+	/**
+	 * public K maxKey()
+	 *
+	 * Returns the largest key in the tree, or null if the tree is empty - O(1)
+	 */
+	public K maxKey() {
+		return this.max == null ? null : this.max.key;
+	}
+
+	/**
+	 * public Object[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	//An in-order walk from the minimum with the successor function - O(n) time.
+	public Object[] keysToArray() {
+		Object[] arr = new Object[size()];
+		int i = 0;
+		for(Entry<K, V> node = this.min; node != null; node = successor(node))
+			arr[i++] = node.key;
+		return arr;
+	}
+
+	/**
+	 * public Object[] valuesToArray()
+	 *
+	 * Returns an array which contains all values in the tree, sorted by their respective keys.
+	 */
+	//An in-order walk from the minimum - O(n) time.
+	public Object[] valuesToArray() {
+		Object[] arr = new Object[size()];
+		int i = 0;
+		for(Entry<K, V> node = this.min; node != null; node = successor(node))
+			arr[i++] = node.value;
+		return arr;
+	}
+
+	/**
+	 * public ComparatorAVLTree<K, V>[] split(K x)
+	 *
+	 * splits the tree into 2 trees according to the key x.
+	 * Returns an array [t1, t2] with two trees with the same comparator. keys(t1) < x < keys(t2).
+	 * The item with key x (if there is one) is in neither tree, and this tree is empty afterwards.
+	 */
+	//Time complexity is O(log n).
+	@SuppressWarnings("unchecked")
+	public ComparatorAVLTree<K, V>[] split(K x) {
+		ComparatorAVLTree<K, V>[] ret = (ComparatorAVLTree<K, V>[]) new ComparatorAVLTree<?, ?>[2];
+		ret[0] = new ComparatorAVLTree<K, V>(this.comparator);
+		ret[1] = new ComparatorAVLTree<K, V>(this.comparator);
+		Entry<K, V> last = descend(x);
+		if(last != null)
+			splitInto(last, Integer.signum(this.comparator.compare(x, last.key)), ret[0], ret[1]);
+		return ret;
+	}
+
+	/**
+	 * public void join(K k, V v, ComparatorAVLTree<K, V> t)
+	 *
+	 * joins the item (k, v) and the tree t into this tree. t is empty afterwards.
+	 * precondition: keys() < k < keys(t) or keys(t) < k < keys(), otherwise IllegalArgumentException is thrown.
+	 */
+	//Time complexity is O(|rank() - rank(t)| + 1).
+	public void join(K k, V v, ComparatorAVLTree<K, V> t) {
+		Comparator<? super K> c = this.comparator;
+		boolean high;
+		if((this.empty() || c.compare(this.max.key, k) < 0) && (t.empty() || c.compare(t.min.key, k) > 0))
+			high = true;
+		else if((this.empty() || c.compare(this.min.key, k) > 0) && (t.empty() || c.compare(t.max.key, k) < 0))
+			high = false;
+		else
+			throw new IllegalArgumentException("the key " + k + " does not separate the keys of the two trees");
+		joinWith(new Entry<K, V>(k, v), t, high);
+	}
+}
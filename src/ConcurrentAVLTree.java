@@ -0,0 +1,988 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * ConcurrentAVLTree
+ *
+ * A thread safe AVL tree with distinct int keys and String info, with the search/insert/delete API of AVLTree.
+ * It follows the concurrent relaxed balance AVL tree of Bronson, Casper, Chafi and Olukotun
+ * ("A Practical Concurrent Binary Search Tree", PPoPP 2010):
+ *
+ * - Reads never lock and never write. Every node has a version that a rotation changes when the node shrinks
+ *   (loses keys from its sub-tree). A reader goes hand over hand: it reads the version of a node, reads the child,
+ *   and checks that the version did not change, so a key cannot move out of the sub-tree it is looking at.
+ *   A reader that sees a shrinking node waits for the rotation to end and retries from the last node that is still valid.
+ * - Writers lock (synchronized) only the nodes whose links they change: the parent of a new leaf, a node and its parent to unlink it,
+ *   and the 3 or 4 nodes of a rotation, always from the top down, so there are no deadlocks.
+ * - Deleting a node with 2 kids only clears its value, and it stays in the tree as a routing node,
+ *   which is unlinked when it has less than 2 kids. So a delete never moves a node and readers never miss a key because of it.
+ * - The balance is relaxed: a writer repairs the heights from the node it changed up, one locked node at a time,
+ *   and the tree is a valid AVL tree whenever no writer is in the middle of such a repair.
+ *
+ * search, containsKey, insert and delete are linearizable. size, min, max and the arrays are weakly consistent:
+ * they reflect the tree at some point during the call for keys that do not change during it.
+ *
+ */
+
+public class ConcurrentAVLTree {
+	//The version bits of a node
+	static final long UNLINKED = 1L;  //The node is not in the tree anymore
+	static final long SHRINKING = 2L; //A rotation is moving keys out of the sub-tree of the node
+	static final long SHRINK_INCREMENT = 4L;
+
+	static final int SPIN_COUNT = 100;
+	static final int YIELD_COUNT = 10;
+
+	//The results of nodeCondition that are not a new height
+	static final int UNLINK_REQUIRED = -1;
+	static final int REBALANCE_REQUIRED = -2;
+	static final int NOTHING_REQUIRED = -3;
+
+	//The update modes
+	static final int IF_ABSENT = 0;
+	static final int IF_PRESENT = 1;
+
+	static final Object RETRY = new Object();     //The result of an attempt whose path was changed by a rotation
+	static final Object NULL_INFO = new Object(); //The value of an item whose info is null, as a null value marks a routing node
+	static final Node RETRY_NODE = new Node(0, 0, null, null, UNLINKED, null, null); //The result of an insert that lost a race for its leaf
+
+	final Node rootHolder = new Node(0, 1, null, null, 0L, null, null); //The real root is its right child
+	final LongAdder count = new LongAdder(); //The number of items
+
+	/*
+	 * A node. The key never changes. value is null for a routing node, and NULL_INFO for an item whose info is null.
+	 * Every field that a reader may read without a lock is volatile.
+	 */
+	static final class Node {
+		final int key;
+		volatile int height;
+		volatile long version;
+		volatile Object value;
+		volatile Node parent;
+		volatile Node left;
+		volatile Node right;
+
+		Node(int key, int height, Object value, Node parent, long version, Node left, Node right) {
+			this.key = key;
+			this.height = height;
+			this.value = value;
+			this.parent = parent;
+			this.version = version;
+			this.left = left;
+			this.right = right;
+		}
+
+		//The child in direction dir: < 0 is left, > 0 is right
+		Node child(int dir) {
+			return dir < 0 ? this.left : this.right;
+		}
+
+		void setChild(int dir, Node node) {
+			if(dir < 0)
+				this.left = node;
+			else
+				this.right = node;
+		}
+
+		/*
+		 * Waits until the rotation that set the shrinking bit of the version ovl is done:
+		 * spins, then yields, and at last takes the lock of the node, which the rotation holds.
+		 */
+		void waitUntilShrinkCompleted(long ovl) {
+			if((ovl & SHRINKING) == 0)
+				return;
+			for(int tries = 0; tries < SPIN_COUNT; tries++) {
+				if(this.version != ovl)
+					return;
+			}
+			for(int tries = 0; tries < YIELD_COUNT; tries++) {
+				Thread.yield();
+				if(this.version != ovl)
+					return;
+			}
+			synchronized(this) {
+				// the lock is free only when the rotation is done
+			}
+		}
+	}
+
+	static boolean isShrinkingOrUnlinked(long ovl) {
+		return (ovl & (SHRINKING | UNLINKED)) != 0;
+	}
+
+	static boolean isUnlinked(long ovl) {
+		return (ovl & UNLINKED) != 0;
+	}
+
+	static long beginShrink(long ovl) {
+		return ovl | SHRINKING;
+	}
+
+	static long endShrink(long ovl) {
+		return ovl + SHRINK_INCREMENT;
+	}
+
+	static int height(Node node) {
+		return node == null ? 0 : node.height;
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return size() == 0;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of items in the tree. Inserts and deletes that run at the same time may or may not be counted.
+	 */
+	public int size() {
+		return (int) this.count.sum();
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	//Time complexity is O(log n) and it never blocks, unless it waits for a rotation on its path.
+	public String search(int k) {
+		return unwrap(get(k));
+	}
+
+	/**
+	 * public boolean containsKey(int k)
+	 *
+	 * returns true if and only if an item with key k exists in the tree - O(log n)
+	 */
+	public boolean containsKey(int k) {
+		return get(k) != null;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the tree.
+	 * returns 0 if it was inserted, or -1 if an item with key k already exists in the tree.
+	 * (The rebalancing of a concurrent tree is shared between the writers, so it is not counted.)
+	 */
+	//Time complexity is O(log n).
+	public int insert(int k, String i) {
+		if(update(k, IF_ABSENT, i == null ? NULL_INFO : i) != null)
+			return -1;
+		this.count.increment();
+		return 0;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns 0 if it was deleted, or -1 if an item with key k was not found in the tree.
+	 */
+	//Time complexity is O(log n).
+	public int delete(int k) {
+		if(update(k, IF_PRESENT, null) == null)
+			return -1;
+		this.count.decrement();
+		return 0;
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String min() {
+		Node node = extreme(-1);
+		return node == null ? null : unwrap(node.value);
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty
+	 */
+	public String max() {
+		Node node = extreme(1);
+		return node == null ? null : unwrap(node.value);
+	}
+
+	/**
+	 * public int minKey()
+	 *
+	 * Returns the smallest key in the tree, or -1 if the tree is empty
+	 */
+	public int minKey() {
+		Node node = extreme(-1);
+		return node == null ? -1 : node.key;
+	}
+
+	/**
+	 * public int maxKey()
+	 *
+	 * Returns the largest key in the tree, or -1 if the tree is empty
+	 */
+	public int maxKey() {
+		Node node = extreme(1);
+		return node == null ? -1 : node.key;
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains the keys in the tree.
+	 * Keys that are inserted or deleted during the call may or may not be in it.
+	 */
+	//A single in-order walk with no locks (see Walk) - O(n) when there are no writers, and O(log n) more per restart.
+	public int[] keysToArray() {
+		Walk walk = new Walk(false);
+		walk.run();
+		return Arrays.copyOf(walk.keys, walk.count);
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains the info in the tree, sorted by their respective keys.
+	 * Items that are inserted or deleted during the call may or may not be in it.
+	 */
+	//The same walk as keysToArray - O(n) when there are no writers.
+	public String[] infoToArray() {
+		Walk walk = new Walk(true);
+		walk.run();
+		return Arrays.copyOf(walk.infos, walk.count);
+	}
+
+	/*
+	 * An in-order walk of the tree with no locks, which keeps the nodes whose right sub-trees are still to be walked
+	 * on a stack, together with the versions they had when they were pushed, and checks the versions like the searches do.
+	 * A key leaves the sub-tree of a node only when a rotation shrinks that node, which changes its version,
+	 * so while the versions of the nodes on the stack hold, every key that is not visited yet is under one of them.
+	 * When a version changed (or a child was not valid on the way down) the stack is built again by a descent
+	 * to the keys larger than the last visited one, and keys that are not larger than it are skipped,
+	 * so the keys come out sorted and distinct, and every key that is in the tree during the whole walk is in it.
+	 * Time complexity is O(n) when no rotation gets in its way, plus O(log n) for every restart.
+	 */
+	private final class Walk {
+		final boolean values;    //True if infos are collected, false for keys
+		int[] keys;
+		String[] infos;
+		int count;
+		private Node[] stack = new Node[32];
+		private long[] versions = new long[32];
+		private int top;
+		private boolean started; //True once a node was visited, then last is its key
+		private int last;
+
+		Walk(boolean values) {
+			this.values = values;
+			int capacity = Math.max(size(), 16);
+			if(values)
+				this.infos = new String[capacity];
+			else
+				this.keys = new int[capacity];
+		}
+
+		void run() {
+			seek();
+			while(this.top > 0) {
+				Node node = this.stack[--this.top];
+				long ovl = this.versions[this.top];
+				Object value = node.value;
+				Node right = node.right;
+				if(node.version != ovl) {
+					seek();
+					continue;
+				}
+				if(!this.started || node.key > this.last) {
+					if(value != null)
+						add(node.key, value);
+					this.started = true;
+					this.last = node.key;
+				}
+				if(right != null && !pushLeftSpine(node, ovl, right))
+					seek();
+			}
+		}
+
+		//Pushes the right child of parent and the nodes on its way to its smallest key, checking every link on the way.
+		//Returns false if one was not valid.
+		private boolean pushLeftSpine(Node parent, long parentOVL, Node child) {
+			boolean right = true;
+			while(child != null) {
+				long childOVL = child.version;
+				if(isShrinkingOrUnlinked(childOVL)) {
+					child.waitUntilShrinkCompleted(childOVL);
+					return false;
+				}
+				if(child != (right ? parent.right : parent.left) || parent.version != parentOVL)
+					return false;
+				right = false;
+				push(child, childOVL);
+				parent = child;
+				parentOVL = childOVL;
+				child = child.left;
+			}
+			return true;
+		}
+
+		//Builds the stack again: the nodes on the path to the keys larger than last where the descent goes left - O(log n)
+		private void seek() {
+			while(true) {
+				this.top = 0;
+				Node node = rootHolder.right;
+				if(node == null)
+					return;
+				long ovl = node.version;
+				if(isShrinkingOrUnlinked(ovl)) {
+					node.waitUntilShrinkCompleted(ovl);
+					continue;
+				}
+				if(node != rootHolder.right)
+					continue;
+				if(descend(node, ovl))
+					return;
+			}
+		}
+
+		private boolean descend(Node node, long ovl) {
+			while(true) {
+				boolean left = !this.started || node.key > this.last;
+				if(left)
+					push(node, ovl);
+				Node child = left ? node.left : node.right;
+				if(child == null)
+					return node.version == ovl;
+				long childOVL = child.version;
+				if(isShrinkingOrUnlinked(childOVL)) {
+					child.waitUntilShrinkCompleted(childOVL);
+					return false;
+				}
+				if(child != (left ? node.left : node.right) || node.version != ovl)
+					return false;
+				node = child;
+				ovl = childOVL;
+			}
+		}
+
+		private void push(Node node, long ovl) {
+			if(this.top == this.stack.length) {
+				this.stack = Arrays.copyOf(this.stack, this.top * 2);
+				this.versions = Arrays.copyOf(this.versions, this.top * 2);
+			}
+			this.stack[this.top] = node;
+			this.versions[this.top++] = ovl;
+		}
+
+		private void add(int key, Object value) {
+			int capacity = this.values ? this.infos.length : this.keys.length;
+			if(this.count == capacity) {
+				if(this.values)
+					this.infos = Arrays.copyOf(this.infos, capacity * 2);
+				else
+					this.keys = Arrays.copyOf(this.keys, capacity * 2);
+			}
+			if(this.values)
+				this.infos[this.count++] = unwrap(value);
+			else
+				this.keys[this.count++] = key;
+		}
+	}
+
+	static String unwrap(Object value) {
+		return value == NULL_INFO ? null : (String) value;
+	}
+
+	/*
+	 * From here goes the search. Every attempt method returns RETRY when the version of the node it started from changed,
+	 * and its caller then retries from its own node, which is still valid.
+	 */
+
+	//Returns the value of k, or null if it is not in the tree
+	private Object get(int k) {
+		while(true) {
+			Node right = this.rootHolder.right;
+			if(right == null)
+				return null;
+			int cmp = Integer.compare(k, right.key);
+			if(cmp == 0)
+				return right.value;
+			long ovl = right.version;
+			if(isShrinkingOrUnlinked(ovl))
+				right.waitUntilShrinkCompleted(ovl);
+			else if(right == this.rootHolder.right) {
+				Object value = attemptGet(k, right, cmp, ovl);
+				if(value != RETRY)
+					return value;
+			}
+		}
+	}
+
+	private Object attemptGet(int k, Node node, int dir, long nodeOVL) {
+		while(true) {
+			Node child = node.child(dir);
+			if(child == null) {
+				if(node.version != nodeOVL)
+					return RETRY;
+				return null;
+			}
+			int cmp = Integer.compare(k, child.key);
+			if(cmp == 0)
+				return child.value;
+			long childOVL = child.version;
+			if(isShrinkingOrUnlinked(childOVL)) {
+				child.waitUntilShrinkCompleted(childOVL);
+				if(node.version != nodeOVL)
+					return RETRY;
+			}
+			else if(child != node.child(dir)) {
+				if(node.version != nodeOVL)
+					return RETRY;
+			}
+			else {
+				if(node.version != nodeOVL)
+					return RETRY;
+				Object value = attemptGet(k, child, cmp, childOVL);
+				if(value != RETRY)
+					return value;
+			}
+		}
+	}
+
+	//Returns the node of the smallest (dir < 0) or largest (dir > 0) key, or null if the tree is empty
+	private Node extreme(int dir) {
+		while(true) {
+			Node right = this.rootHolder.right;
+			if(right == null)
+				return null;
+			long ovl = right.version;
+			if(isShrinkingOrUnlinked(ovl))
+				right.waitUntilShrinkCompleted(ovl);
+			else if(right == this.rootHolder.right) {
+				Object node = attemptExtreme(dir, right, ovl);
+				if(node != RETRY)
+					return (Node) node;
+			}
+		}
+	}
+
+	private Object attemptExtreme(int dir, Node node, long nodeOVL) {
+		while(true) {
+			Node child = node.child(dir);
+			if(child == null) {
+				Object value = node.value;
+				if(node.version != nodeOVL)
+					return RETRY;
+				if(value == null) { // a routing node that is about to be unlinked - wait for it
+					Thread.yield();
+					return RETRY;
+				}
+				return node;
+			}
+			long childOVL = child.version;
+			if(isShrinkingOrUnlinked(childOVL)) {
+				child.waitUntilShrinkCompleted(childOVL);
+				if(node.version != nodeOVL)
+					return RETRY;
+			}
+			else if(child != node.child(dir)) {
+				if(node.version != nodeOVL)
+					return RETRY;
+			}
+			else {
+				if(node.version != nodeOVL)
+					return RETRY;
+				Object result = attemptExtreme(dir, child, childOVL);
+				if(result != RETRY)
+					return result;
+			}
+		}
+	}
+
+	/*
+	 * From here goes the update: sets the value of k to newValue (null removes it) if mode allows it,
+	 * and returns the previous value of k, or null if it was not in the tree.
+	 */
+	private Object update(int k, int mode, Object newValue) {
+		while(true) {
+			Node right = this.rootHolder.right;
+			if(right == null) {
+				if(newValue == null || attemptInsertIntoEmpty(k, newValue))
+					return null;
+			}
+			else {
+				long ovl = right.version;
+				if(isShrinkingOrUnlinked(ovl))
+					right.waitUntilShrinkCompleted(ovl);
+				else if(right == this.rootHolder.right) {
+					Object value = attemptUpdate(k, mode, newValue, this.rootHolder, right, ovl);
+					if(value != RETRY)
+						return value;
+				}
+			}
+		}
+	}
+
+	static boolean shouldUpdate(int mode, Object prev) {
+		return mode == IF_ABSENT ? prev == null : prev != null;
+	}
+
+	private boolean attemptInsertIntoEmpty(int k, Object value) {
+		synchronized(this.rootHolder) {
+			if(this.rootHolder.right != null)
+				return false;
+			this.rootHolder.right = new Node(k, 1, value, this.rootHolder, 0L, null, null);
+			this.rootHolder.height = 2;
+			return true;
+		}
+	}
+
+	/*
+	 * The search part of update. Going down from node to a child is valid as long as the version of node did not change,
+	 * as a rotation that moves keys out of the sub-tree of node changes it. A new leaf is linked under the lock of its parent,
+	 * after the version of the parent is checked again.
+	 */
+	private Object attemptUpdate(int k, int mode, Object newValue, Node parent, Node node, long nodeOVL) {
+		int dir = Integer.compare(k, node.key);
+		if(dir == 0)
+			return attemptNodeUpdate(mode, newValue, parent, node);
+		while(true) {
+			Node child = node.child(dir);
+			if(node.version != nodeOVL)
+				return RETRY;
+			if(child == null) {
+				if(newValue == null) // deleting a missing key
+					return null;
+				Node damaged;
+				synchronized(node) {
+					if(node.version != nodeOVL)
+						return RETRY;
+					if(node.child(dir) != null) { // lost a race with another insert - retry from node
+						damaged = RETRY_NODE;
+					}
+					else {
+						node.setChild(dir, new Node(k, 1, newValue, node, 0L, null, null));
+						damaged = fixHeight(node);
+					}
+				}
+				if(damaged != RETRY_NODE) {
+					fixHeightAndRebalance(damaged);
+					return null;
+				}
+			}
+			else {
+				long childOVL = child.version;
+				if(isShrinkingOrUnlinked(childOVL))
+					child.waitUntilShrinkCompleted(childOVL);
+				else if(child != node.child(dir)) {
+					// retry - the read of the child is protected by childOVL
+				}
+				else {
+					if(node.version != nodeOVL)
+						return RETRY;
+					Object value = attemptUpdate(k, mode, newValue, node, child, childOVL);
+					if(value != RETRY)
+						return value;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Updates the node that holds k. A removal of a node with less than 2 kids unlinks it under the locks of its parent and itself,
+	 * any other update only changes the value under the lock of the node (a removed node with 2 kids becomes a routing node).
+	 */
+	private Object attemptNodeUpdate(int mode, Object newValue, Node parent, Node node) {
+		if(newValue == null && node.value == null) // already removed
+			return null;
+		if(newValue == null && (node.left == null || node.right == null)) {
+			Object prev;
+			Node damaged;
+			synchronized(parent) {
+				if(isUnlinked(parent.version) || node.parent != parent)
+					return RETRY;
+				synchronized(node) {
+					prev = node.value;
+					if(!shouldUpdate(mode, prev))
+						return prev;
+					if(!attemptUnlink(parent, node))
+						return RETRY;
+				}
+				damaged = fixHeight(parent);
+			}
+			fixHeightAndRebalance(damaged);
+			return prev;
+		}
+		synchronized(node) {
+			if(isUnlinked(node.version))
+				return RETRY;
+			Object prev = node.value;
+			if(!shouldUpdate(mode, prev))
+				return prev;
+			if(newValue == null && (node.left == null || node.right == null)) // it can be unlinked now
+				return RETRY;
+			node.value = newValue;
+			return prev;
+		}
+	}
+
+	//Unlinks node, that has less than 2 kids, from parent. Both are locked. Returns false if the links changed - O(1)
+	private static boolean attemptUnlink(Node parent, Node node) {
+		Node parentL = parent.left;
+		Node parentR = parent.right;
+		if(parentL != node && parentR != node)
+			return false;
+		Node left = node.left;
+		Node right = node.right;
+		if(left != null && right != null)
+			return false;
+		Node splice = left != null ? left : right;
+		if(parentL == node)
+			parent.left = splice;
+		else
+			parent.right = splice;
+		if(splice != null)
+			splice.parent = parent;
+		node.version = UNLINKED;
+		node.value = null;
+		return true;
+	}
+
+	/*
+	 * From here goes the relaxed rebalancing. A damaged node is a node whose height is wrong, whose kids differ by more than 1,
+	 * or a routing node with less than 2 kids. Every writer repairs the damage it made, going up one node at a time.
+	 */
+
+	//What a node needs: UNLINK_REQUIRED, REBALANCE_REQUIRED, NOTHING_REQUIRED, or its new height
+	private static int nodeCondition(Node node) {
+		Node nL = node.left;
+		Node nR = node.right;
+		if((nL == null || nR == null) && node.value == null)
+			return UNLINK_REQUIRED;
+		int hN = node.height;
+		int hL0 = height(nL);
+		int hR0 = height(nR);
+		int hNRepl = 1 + Math.max(hL0, hR0);
+		int bal = hL0 - hR0;
+		if(bal < -1 || bal > 1)
+			return REBALANCE_REQUIRED;
+		return hN != hNRepl ? hNRepl : NOTHING_REQUIRED;
+	}
+
+	/*
+	 * Repairs the nodes from node up, until there is no damage left - O(log n) locks, one or two at a time.
+	 * A rotation returns the deepest node it damaged, and the nodes above it may be damaged too
+	 * (a routing node that the rotation left with one kid is unlinked without a change of the height above it,
+	 * while the rotation changed the height of the whole sub-tree). So after a rotation the walk goes on up to the root,
+	 * and it only takes locks at the nodes that still need a repair.
+	 */
+	private void fixHeightAndRebalance(Node node) {
+		boolean rotated = false;
+		while(node != null && node.parent != null) {
+			if(isUnlinked(node.version))
+				return;
+			Node up = node.parent;
+			int condition = nodeCondition(node);
+			Node next;
+			if(condition == NOTHING_REQUIRED)
+				next = null;
+			else if(condition != UNLINK_REQUIRED && condition != REBALANCE_REQUIRED) {
+				synchronized(node) {
+					next = fixHeight(node);
+				}
+			}
+			else {
+				next = node; // retry with the new parent, unless it is rebalanced now
+				synchronized(up) {
+					if(!isUnlinked(up.version) && node.parent == up) {
+						synchronized(node) {
+							next = rebalance(up, node);
+						}
+						rotated = true;
+					}
+				}
+			}
+			node = next == null && rotated ? up : next;
+		}
+	}
+
+	/*
+	 * Fixes the height of a locked node. Returns the next damaged node that this thread has to repair
+	 * (the node itself if it needs more than a height fix, its parent after a height change), or null if there is none.
+	 */
+	private static Node fixHeight(Node node) {
+		int c = nodeCondition(node);
+		switch(c) {
+		case REBALANCE_REQUIRED:
+		case UNLINK_REQUIRED:
+			return node;
+		case NOTHING_REQUIRED:
+			return null;
+		default:
+			node.height = c;
+			return node.parent;
+		}
+	}
+
+	//Repairs the locked node n under its locked parent. Returns the next damaged node, or null - O(1)
+	private Node rebalance(Node nParent, Node n) {
+		Node nL = n.left;
+		Node nR = n.right;
+		if((nL == null || nR == null) && n.value == null) {
+			if(attemptUnlink(nParent, n))
+				return fixHeight(nParent);
+			return n;
+		}
+		int hN = n.height;
+		int hL0 = height(nL);
+		int hR0 = height(nR);
+		int hNRepl = 1 + Math.max(hL0, hR0);
+		int bal = hL0 - hR0;
+		if(bal > 1)
+			return rebalanceToRight(nParent, n, nL, hR0);
+		if(bal < -1)
+			return rebalanceToLeft(nParent, n, nR, hL0);
+		if(hNRepl != hN) {
+			n.height = hNRepl;
+			return fixHeight(nParent);
+		}
+		return null;
+	}
+
+	/*
+	 * The left sub-tree of n is too high: a right rotation of n, or a double rotation if the inner grandchild is the higher one.
+	 * If the double rotation would leave nL unbalanced, nL is rotated alone first and n is repaired later.
+	 */
+	private Node rebalanceToRight(Node nParent, Node n, Node nL, int hR0) {
+		synchronized(nL) {
+			int hL = nL.height;
+			if(hL - hR0 <= 1)
+				return n; // retry
+			Node nLR = nL.right;
+			int hLL0 = height(nL.left);
+			int hLR0 = height(nLR);
+			if(hLL0 >= hLR0)
+				return rotateRight(nParent, n, nL, hR0, hLL0, nLR, hLR0);
+			synchronized(nLR) {
+				int hLR = nLR.height;
+				if(hLL0 >= hLR)
+					return rotateRight(nParent, n, nL, hR0, hLL0, nLR, hLR);
+				int hLRL = height(nLR.left);
+				int b = hLL0 - hLRL;
+				if(b >= -1 && b <= 1)
+					return rotateRightOverLeft(nParent, n, nL, hR0, hLL0, nLR, hLRL);
+			}
+			return rebalanceToLeft(n, nL, nLR, hLL0);
+		}
+	}
+
+	//The symmetric function of rebalanceToRight
+	private Node rebalanceToLeft(Node nParent, Node n, Node nR, int hL0) {
+		synchronized(nR) {
+			int hR = nR.height;
+			if(hL0 - hR >= -1)
+				return n; // retry
+			Node nRL = nR.left;
+			int hRL0 = height(nRL);
+			int hRR0 = height(nR.right);
+			if(hRR0 >= hRL0)
+				return rotateLeft(nParent, n, hL0, nR, nRL, hRL0, hRR0);
+			synchronized(nRL) {
+				int hRL = nRL.height;
+				if(hRR0 >= hRL)
+					return rotateLeft(nParent, n, hL0, nR, nRL, hRL, hRR0);
+				int hRLR = height(nRL.right);
+				int b = hRR0 - hRLR;
+				if(b >= -1 && b <= 1)
+					return rotateLeftOverRight(nParent, n, hL0, nR, nRL, hRR0, hRLR);
+			}
+			return rebalanceToRight(n, nR, nRL, hRR0);
+		}
+	}
+
+	/*
+	 * Rotates n with its left child nL. n shrinks, so its version is marked as shrinking during the rotation.
+	 * Returns the deepest node that is still damaged, or the result of fixing the parent - O(1)
+	 */
+	private Node rotateRight(Node nParent, Node n, Node nL, int hR, int hLL, Node nLR, int hLR) {
+		long nodeOVL = n.version;
+		Node nPL = nParent.left;
+		n.version = beginShrink(nodeOVL);
+
+		n.left = nLR;
+		if(nLR != null)
+			nLR.parent = n;
+		nL.right = n;
+		n.parent = nL;
+		if(nPL == n)
+			nParent.left = nL;
+		else
+			nParent.right = nL;
+		nL.parent = nParent;
+
+		int hNRepl = 1 + Math.max(hLR, hR);
+		n.height = hNRepl;
+		nL.height = 1 + Math.max(hLL, hNRepl);
+		n.version = endShrink(nodeOVL);
+
+		int balN = hLR - hR;
+		if(balN < -1 || balN > 1)
+			return n;
+		if((nLR == null || hR == 0) && n.value == null)
+			return n;
+		int balL = hLL - hNRepl;
+		if(balL < -1 || balL > 1)
+			return nL;
+		if(hLL == 0 && nL.value == null)
+			return nL;
+		return fixHeight(nParent);
+	}
+
+	//The symmetric rotation - rotates n with its right child nR - O(1)
+	private Node rotateLeft(Node nParent, Node n, int hL, Node nR, Node nRL, int hRL, int hRR) {
+		long nodeOVL = n.version;
+		Node nPL = nParent.left;
+		n.version = beginShrink(nodeOVL);
+
+		n.right = nRL;
+		if(nRL != null)
+			nRL.parent = n;
+		nR.left = n;
+		n.parent = nR;
+		if(nPL == n)
+			nParent.left = nR;
+		else
+			nParent.right = nR;
+		nR.parent = nParent;
+
+		int hNRepl = 1 + Math.max(hL, hRL);
+		n.height = hNRepl;
+		nR.height = 1 + Math.max(hNRepl, hRR);
+		n.version = endShrink(nodeOVL);
+
+		int balN = hRL - hL;
+		if(balN < -1 || balN > 1)
+			return n;
+		if((nRL == null || hL == 0) && n.value == null)
+			return n;
+		int balR = hRR - hNRepl;
+		if(balR < -1 || balR > 1)
+			return nR;
+		if(hRR == 0 && nR.value == null)
+			return nR;
+		return fixHeight(nParent);
+	}
+
+	//The double rotation: nLR, the right child of nL, takes the place of n with nL and n as its kids - O(1)
+	private Node rotateRightOverLeft(Node nParent, Node n, Node nL, int hR, int hLL, Node nLR, int hLRL) {
+		long nodeOVL = n.version;
+		long leftOVL = nL.version;
+		Node nPL = nParent.left;
+		Node nLRL = nLR.left;
+		Node nLRR = nLR.right;
+		int hLRR = height(nLRR);
+		n.version = beginShrink(nodeOVL);
+		nL.version = beginShrink(leftOVL);
+
+		n.left = nLRR;
+		if(nLRR != null)
+			nLRR.parent = n;
+		nL.right = nLRL;
+		if(nLRL != null)
+			nLRL.parent = nL;
+		nLR.left = nL;
+		nL.parent = nLR;
+		nLR.right = n;
+		n.parent = nLR;
+		if(nPL == n)
+			nParent.left = nLR;
+		else
+			nParent.right = nLR;
+		nLR.parent = nParent;
+
+		int hNRepl = 1 + Math.max(hLRR, hR);
+		n.height = hNRepl;
+		int hLRepl = 1 + Math.max(hLL, hLRL);
+		nL.height = hLRepl;
+		nLR.height = 1 + Math.max(hLRepl, hNRepl);
+		n.version = endShrink(nodeOVL);
+		nL.version = endShrink(leftOVL);
+
+		// nL is a routing node that is left with one kid - it and its new parent are locked, so it is unlinked right away
+		if((hLL == 0 || nLRL == null) && nL.value == null && attemptUnlink(nLR, nL)) {
+			hLRepl = Math.max(hLL, hLRL);
+			nLR.height = 1 + Math.max(hLRepl, hNRepl);
+		}
+
+		int balN = hLRR - hR;
+		if(balN < -1 || balN > 1)
+			return n;
+		if((nLRR == null || hR == 0) && n.value == null)
+			return n;
+		int balLR = hLRepl - hNRepl;
+		if(balLR < -1 || balLR > 1)
+			return nLR;
+		return fixHeight(nParent);
+	}
+
+	//The symmetric double rotation - O(1)
+	private Node rotateLeftOverRight(Node nParent, Node n, int hL, Node nR, Node nRL, int hRR, int hRLR) {
+		long nodeOVL = n.version;
+		long rightOVL = nR.version;
+		Node nPL = nParent.left;
+		Node nRLL = nRL.left;
+		Node nRLR = nRL.right;
+		int hRLL = height(nRLL);
+		n.version = beginShrink(nodeOVL);
+		nR.version = beginShrink(rightOVL);
+
+		n.right = nRLL;
+		if(nRLL != null)
+			nRLL.parent = n;
+		nR.left = nRLR;
+		if(nRLR != null)
+			nRLR.parent = nR;
+		nRL.right = nR;
+		nR.parent = nRL;
+		nRL.left = n;
+		n.parent = nRL;
+		if(nPL == n)
+			nParent.left = nRL;
+		else
+			nParent.right = nRL;
+		nRL.parent = nParent;
+
+		int hNRepl = 1 + Math.max(hL, hRLL);
+		n.height = hNRepl;
+		int hRRepl = 1 + Math.max(hRLR, hRR);
+		nR.height = hRRepl;
+		nRL.height = 1 + Math.max(hNRepl, hRRepl);
+		n.version = endShrink(nodeOVL);
+		nR.version = endShrink(rightOVL);
+
+		// nR is a routing node that is left with one kid - it and its new parent are locked, so it is unlinked right away
+		if((hRR == 0 || nRLR == null) && nR.value == null && attemptUnlink(nRL, nR)) {
+			hRRepl = Math.max(hRLR, hRR);
+			nRL.height = 1 + Math.max(hNRepl, hRRepl);
+		}
+
+		int balN = hRLL - hL;
+		if(balN < -1 || balN > 1)
+			return n;
+		if((nRLL == null || hL == 0) && n.value == null)
+			return n;
+		int balRL = hRRepl - hNRepl;
+		if(balRL < -1 || balRL > 1)
+			return nRL;
+		return fixHeight(nParent);
+	}
+}
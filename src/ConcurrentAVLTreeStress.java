@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *
+ * ConcurrentAVLTreeStress
+ *
+ * A multi-writer stress check of ConcurrentAVLTree. Every round runs writers and readers on one tree at the same time:
+ *
+ * - Every writer owns the keys k with k % writers == its number, and runs random inserts, deletes and searches on them only.
+ *   No other thread changes its keys, so the linearizable result of every operation is known from the writer's own model
+ *   of its keys, and every return value is checked against it.
+ * - The tree also holds a set of stable keys (negative, so they are below all the keys of the writers) that no one changes.
+ *   The readers check that every search of a stable key finds it, that minKey is the smallest of them, and that
+ *   keysToArray and infoToArray are sorted, distinct and hold all of them, while the writers rotate the tree under them.
+ * - When all the threads are done, the contents of the tree must be the union of the writers' models and the stable keys,
+ *   and the tree must be a valid AVL tree: search order, parent links, exact heights, balance factors of at most 1,
+ *   no routing node with less than 2 kids, no node with a shrinking or unlinked version, and size() equal to the items.
+ *
+ * It prints a line for every round, and exits with status 1 and the stack trace of the first failure.
+ *
+ * usage: java ConcurrentAVLTreeStress [-writers 8] [-readers 4] [-ops 200000] [-range 20000]
+ *                                     [-stable 1000] [-rounds 20] [-seed 42]
+ *
+ */
+
+public class ConcurrentAVLTreeStress {
+	int writers = 8;
+	int readers = 4;
+	int ops = 200000;    //The operations of every writer in a round
+	int range = 20000;   //The keys of the writers are 0..range-1
+	int stable = 1000;   //The number of stable keys
+	int rounds = 20;
+	long seed = 42;
+
+	public static void main(String[] args) {
+		ConcurrentAVLTreeStress stress = new ConcurrentAVLTreeStress();
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 >= args.length)
+				throw new IllegalArgumentException("missing value for " + args[i]);
+			int value = Integer.parseInt(args[i + 1]);
+			switch (args[i]) {
+			case "-writers":
+				stress.writers = value;
+				break;
+			case "-readers":
+				stress.readers = value;
+				break;
+			case "-ops":
+				stress.ops = value;
+				break;
+			case "-range":
+				stress.range = value;
+				break;
+			case "-stable":
+				stress.stable = value;
+				break;
+			case "-rounds":
+				stress.rounds = value;
+				break;
+			case "-seed":
+				stress.seed = value;
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+		try {
+			for (int round = 0; round < stress.rounds; round++) {
+				int items = stress.round(round);
+				System.out.printf("round %d ok - %d items%n", round, items);
+			}
+		}
+		catch (Throwable e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	//Runs one round and returns the number of items that the tree has at its end
+	int round(int round) throws Throwable {
+		ConcurrentAVLTree t = new ConcurrentAVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int i = 1; i <= this.stable; i++) {
+			t.insert(-i, "s" + i);
+			expected.put(-i, "s" + i);
+		}
+
+		List<TreeMap<Integer, String>> models = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		AtomicBoolean done = new AtomicBoolean();
+		CountDownLatch go = new CountDownLatch(1);
+		for (int w = 0; w < this.writers; w++) {
+			TreeMap<Integer, String> model = new TreeMap<>();
+			models.add(model);
+			Random rnd = new Random(this.seed + 31L * round + w);
+			int id = w;
+			threads.add(new Thread(() -> run(go, failure, () -> write(t, id, model, rnd))));
+		}
+		for (int r = 0; r < this.readers; r++) {
+			Random rnd = new Random(this.seed - 31L * round - r);
+			threads.add(new Thread(() -> run(go, failure, () -> {
+				while (!done.get() && failure.get() == null)
+					read(t, rnd);
+			})));
+		}
+		for (Thread thread : threads)
+			thread.start();
+		go.countDown();
+		for (int w = 0; w < this.writers; w++)
+			threads.get(w).join();
+		done.set(true);
+		for (Thread thread : threads)
+			thread.join();
+		if (failure.get() != null)
+			throw failure.get();
+
+		for (TreeMap<Integer, String> model : models)
+			expected.putAll(model);
+		checkContents(t, expected);
+		checkTree(t);
+		return expected.size();
+	}
+
+	interface Body {
+		void run() throws Exception;
+	}
+
+	//Runs body once go is released, and keeps its first failure
+	static void run(CountDownLatch go, AtomicReference<Throwable> failure, Body body) {
+		try {
+			go.await();
+			body.run();
+		}
+		catch (Throwable e) {
+			failure.compareAndSet(null, e);
+		}
+	}
+
+	//The operations of writer id on its own keys, each checked against its model
+	void write(ConcurrentAVLTree t, int id, TreeMap<Integer, String> model, Random rnd) {
+		int slots = (this.range + this.writers - 1 - id) / this.writers;
+		for (int op = 0; op < this.ops; op++) {
+			int k = rnd.nextInt(slots) * this.writers + id;
+			int kind = rnd.nextInt(10);
+			if (kind < 4) {
+				String info = rnd.nextInt(8) == 0 ? null : "v" + k + "." + op;
+				boolean had = model.containsKey(k);
+				int result = t.insert(k, info);
+				if (result != (had ? -1 : 0))
+					throw new IllegalStateException("insert(" + k + ") returned " + result + ", but the key was " + (had ? "in" : "not in") + " the tree");
+				if (!had)
+					model.put(k, info);
+			}
+			else if (kind < 8) {
+				boolean had = model.containsKey(k);
+				int result = t.delete(k);
+				if (result != (had ? 0 : -1))
+					throw new IllegalStateException("delete(" + k + ") returned " + result + ", but the key was " + (had ? "in" : "not in") + " the tree");
+				model.remove(k);
+			}
+			else {
+				if (t.containsKey(k) != model.containsKey(k))
+					throw new IllegalStateException("containsKey(" + k + ") is " + !model.containsKey(k));
+				String info = t.search(k);
+				if (!Objects.equals(info, model.get(k)))
+					throw new IllegalStateException("search(" + k + ") returned " + info + " instead of " + model.get(k));
+			}
+		}
+	}
+
+	//One check of a reader: the stable keys are always there, whatever the writers do
+	void read(ConcurrentAVLTree t, Random rnd) {
+		int i = 1 + rnd.nextInt(this.stable);
+		String info = t.search(-i);
+		if (!("s" + i).equals(info))
+			throw new IllegalStateException("search(" + -i + ") returned " + info + " for a stable key");
+		if (t.minKey() != -this.stable)
+			throw new IllegalStateException("minKey() is " + t.minKey() + " instead of " + -this.stable);
+		if (rnd.nextInt(100) != 0)
+			return;
+		int[] keys = t.keysToArray();
+		for (int j = 1; j < keys.length; j++) {
+			if (keys[j] <= keys[j - 1])
+				throw new IllegalStateException("keysToArray() has " + keys[j - 1] + " before " + keys[j]);
+		}
+		for (int j = 0; j < this.stable; j++) {
+			if (j >= keys.length || keys[j] != j - this.stable)
+				throw new IllegalStateException("keysToArray() misses the stable key " + (j - this.stable));
+		}
+		String[] infos = t.infoToArray();
+		for (int j = 0; j < this.stable; j++) {
+			if (j >= infos.length || !("s" + (this.stable - j)).equals(infos[j]))
+				throw new IllegalStateException("infoToArray() misses the info of the stable key " + (j - this.stable));
+		}
+	}
+
+	//After the round: the tree holds exactly the expected items
+	static void checkContents(ConcurrentAVLTree t, TreeMap<Integer, String> expected) {
+		if (t.size() != expected.size())
+			throw new IllegalStateException("size() is " + t.size() + " instead of " + expected.size());
+		int[] keys = t.keysToArray();
+		String[] infos = t.infoToArray();
+		if (keys.length != expected.size() || infos.length != expected.size())
+			throw new IllegalStateException("the arrays have " + keys.length + " and " + infos.length + " items instead of " + expected.size());
+		int i = 0;
+		for (Map.Entry<Integer, String> e : expected.entrySet()) {
+			if (keys[i] != e.getKey() || !Objects.equals(infos[i], e.getValue()))
+				throw new IllegalStateException("item " + i + " is (" + keys[i] + ", " + infos[i] + ") instead of " + e);
+			if (!Objects.equals(t.search(e.getKey()), e.getValue()) || !t.containsKey(e.getKey()))
+				throw new IllegalStateException("search(" + e.getKey() + ") misses " + e);
+			i++;
+		}
+		if (!expected.isEmpty() && (t.minKey() != expected.firstKey() || t.maxKey() != expected.lastKey()))
+			throw new IllegalStateException("minKey/maxKey are " + t.minKey() + "/" + t.maxKey());
+	}
+
+	//After the round: the tree is a valid AVL tree with no rotation or unlink left in the middle
+	static void checkTree(ConcurrentAVLTree t) {
+		ConcurrentAVLTree.Node root = t.rootHolder.right;
+		if (root != null && root.parent != t.rootHolder)
+			throw new IllegalStateException("the root does not point to the root holder");
+		int[] items = new int[1];
+		check(root, Long.MIN_VALUE, Long.MAX_VALUE, items);
+		if (items[0] != t.size())
+			throw new IllegalStateException("the tree has " + items[0] + " items, but size() is " + t.size());
+	}
+
+	//Checks the sub-tree of node, whose keys are in (low, high), and returns its height
+	static int check(ConcurrentAVLTree.Node node, long low, long high, int[] items) {
+		if (node == null)
+			return 0;
+		if (node.key <= low || node.key >= high)
+			throw new IllegalStateException("the key " + node.key + " is out of order");
+		if ((node.version & (ConcurrentAVLTree.SHRINKING | ConcurrentAVLTree.UNLINKED)) != 0)
+			throw new IllegalStateException("the node of " + node.key + " has the version " + node.version);
+		for (ConcurrentAVLTree.Node child : new ConcurrentAVLTree.Node[] { node.left, node.right }) {
+			if (child != null && child.parent != node)
+				throw new IllegalStateException("the parent of " + child.key + " is not " + node.key);
+		}
+		if (node.value == null && (node.left == null || node.right == null))
+			throw new IllegalStateException("the routing node " + node.key + " has less than 2 kids");
+		if (node.value != null)
+			items[0]++;
+		int hl = check(node.left, low, node.key, items);
+		int hr = check(node.right, node.key, high, items);
+		if (Math.abs(hl - hr) > 1)
+			throw new IllegalStateException("the node " + node.key + " is unbalanced: " + hl + " and " + hr);
+		if (node.height != 1 + Math.max(hl, hr))
+			throw new IllegalStateException("the node " + node.key + " has the height " + node.height + " instead of " + (1 + Math.max(hl, hr)));
+		return node.height;
+	}
+}
@@ -0,0 +1,127 @@
+/**
+ *
+ * IntAVLMap
+ *
+ * An AVL tree map with distinct primitive int keys and values of any type V.
+ * This is the generic version of AVLTree, whose info is always a String.
+ * The keys are never boxed: the search reads the int key field of the nodes directly.
+ *
+ */
+
+public class IntAVLMap<V> extends AbstractIntAVLTree<IntAVLMap.Entry<V>> {
+
+	//A node of the map - a key, a value and the structure fields
+	static final class Entry<V> extends AbstractIntAVLTree.IntNode<Entry<V>> {
+		V value;
+
+		Entry(int key, V value) {
+			super(key);
+			this.value = value;
+		}
+	}
+
+	/**
+	 * public V get(int k)
+	 *
+	 * returns the value of the item with key k if it exists in the map, otherwise returns null.
+	 * Use containsKey to tell a null value from a missing key.
+	 */
+	//Time complexity is O(log n), a single descent from the root.
+	public V get(int k) {
+		Entry<V> node = find(k);
+		return node == null ? null : node.value;
+	}
+
+	/**
+	 * public V put(int k, V v)
+	 *
+	 * Sets the value of the key k to v, inserting a new item if there is no item with key k.
+	 * Returns the previous value of k, or null if there was no item with key k.
+	 */
+	//A single descent finds the node or the place to attach a new one - O(log n).
+	public V put(int k, V v) {
+		Entry<V> last = descend(k);
+		if(last != null && last.key == k) {
+			V old = last.value;
+			last.value = v;
+			return old;
+		}
+		attachAt(last, new Entry<V>(k, v));
+		return null;
+	}
+
+	/**
+	 * public V remove(int k)
+	 *
+	 * Removes the item with key k if it is there.
+	 * Returns its value, or null if there was no item with key k.
+	 */
+	//Time complexity is O(log n).
+	public V remove(int k) {
+		Entry<V> node = find(k);
+		if(node == null)
+			return null;
+		remove(node);
+		return node.value;
+	}
+
+	/**
+	 * public V min()
+	 *
+	 * Returns the value of the item with the smallest key in the map, or null if the map is empty - O(1)
+	 */
+	public V min() {
+		return this.min == null ? null : this.min.value;
+	}
+
+	/**
+	 * public V max()
+	 *
+	 * Returns the value of the item with the largest key in the map, or null if the map is empty - O(1)
+	 */
+	public V max() {
+		return this.max == null ? null : this.max.value;
+	}
+
+	/**
+	 * public Object[] valuesToArray()
+	 *
+	 * Returns an array which contains all values in the map, sorted by their respective keys.
+	 */
+	//An in-order walk from the minimum - O(n) time.
+	public Object[] valuesToArray() {
+		Object[] arr = new Object[size()];
+		int i = 0;
+		for(Entry<V> node = this.min; node != null; node = successor(node))
+			arr[i++] = node.value;
+		return arr;
+	}
+
+	/**
+	 * public IntAVLMap<V>[] split(int x)
+	 *
+	 * splits the map into 2 maps according to the key x.
+	 * Returns an array [t1, t2] with two maps. keys(t1) < x < keys(t2).
+	 * The item with key x (if there is one) is in neither map, and this map is empty afterwards.
+	 */
+	//Time complexity is O(log n).
+	@SuppressWarnings("unchecked")
+	public IntAVLMap<V>[] split(int x) {
+		IntAVLMap<V>[] ret = (IntAVLMap<V>[]) new IntAVLMap<?>[2];
+		ret[0] = new IntAVLMap<V>();
+		ret[1] = new IntAVLMap<V>();
+		splitInto(x, ret[0], ret[1]);
+		return ret;
+	}
+
+	/**
+	 * public void join(int k, V v, IntAVLMap<V> t)
+	 *
+	 * joins the item (k, v) and the map t into this map. t is empty afterwards.
+	 * precondition: keys() < k < keys(t) or keys(t) < k < keys(), otherwise IllegalArgumentException is thrown.
+	 */
+	//Time complexity is O(|rank() - rank(t)| + 1).
+	public void join(int k, V v, IntAVLMap<V> t) {
+		joinWith(new Entry<V>(k, v), t, joinsAbove(k, t));
+	}
+}
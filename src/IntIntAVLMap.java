@@ -0,0 +1,138 @@
+//GENERATED FROM codegen/IntValueAVLMap.java.template - edit the template and run codegen/Generate.java
+/**
+ *
+ * IntIntAVLMap
+ *
+ * An AVL tree map with distinct primitive int keys and primitive int values.
+ * The values are stored inline in the nodes, so neither the keys nor the values are ever boxed.
+ * A missing key is reported by the no-entry value of the map (0 unless another one is given to the constructor),
+ * use containsKey to tell it from a stored value that is equal to it.
+ *
+ */
+
+public class IntIntAVLMap extends AbstractIntAVLTree<IntIntAVLMap.Entry> {
+	final int noEntryValue; //The value that is returned for a missing key
+
+	//A node of the map - a key, a value and the structure fields
+	static final class Entry extends AbstractIntAVLTree.IntNode<Entry> {
+		int value;
+
+		Entry(int key, int value) {
+			super(key);
+			this.value = value;
+		}
+	}
+
+	//Builds an empty map whose no-entry value is 0 - O(1)
+	public IntIntAVLMap() {
+		this(0);
+	}
+
+	//Builds an empty map with the given no-entry value - O(1)
+	public IntIntAVLMap(int noEntryValue) {
+		this.noEntryValue = noEntryValue;
+	}
+
+	/**
+	 * public int get(int k)
+	 *
+	 * returns the value of the item with key k if it exists in the map, otherwise returns the no-entry value.
+	 */
+	//Time complexity is O(log n), a single descent from the root.
+	public int get(int k) {
+		Entry node = find(k);
+		return node == null ? this.noEntryValue : node.value;
+	}
+
+	/**
+	 * public int put(int k, int v)
+	 *
+	 * Sets the value of the key k to v, inserting a new item if there is no item with key k.
+	 * Returns the previous value of k, or the no-entry value if there was no item with key k.
+	 */
+	//A single descent finds the node or the place to attach a new one - O(log n).
+	public int put(int k, int v) {
+		Entry last = descend(k);
+		if(last != null && last.key == k) {
+			int old = last.value;
+			last.value = v;
+			return old;
+		}
+		attachAt(last, new Entry(k, v));
+		return this.noEntryValue;
+	}
+
+	/**
+	 * public int remove(int k)
+	 *
+	 * Removes the item with key k if it is there.
+	 * Returns its value, or the no-entry value if there was no item with key k.
+	 */
+	//Time complexity is O(log n).
+	public int remove(int k) {
+		Entry node = find(k);
+		if(node == null)
+			return this.noEntryValue;
+		remove(node);
+		return node.value;
+	}
+
+	/**
+	 * public int min()
+	 *
+	 * Returns the value of the item with the smallest key in the map, or the no-entry value if the map is empty - O(1)
+	 */
+	public int min() {
+		return this.min == null ? this.noEntryValue : this.min.value;
+	}
+
+	/**
+	 * public int max()
+	 *
+	 * Returns the value of the item with the largest key in the map, or the no-entry value if the map is empty - O(1)
+	 */
+	public int max() {
+		return this.max == null ? this.noEntryValue : this.max.value;
+	}
+
+	/**
+	 * public int[] valuesToArray()
+	 *
+	 * Returns an array which contains all values in the map, sorted by their respective keys.
+	 */
+	//An in-order walk from the minimum - O(n) time.
+	public int[] valuesToArray() {
+		int[] arr = new int[size()];
+		int i = 0;
+		for(Entry node = this.min; node != null; node = successor(node))
+			arr[i++] = node.value;
+		return arr;
+	}
+
+	/**
+	 * public IntIntAVLMap[] split(int x)
+	 *
+	 * splits the map into 2 maps according to the key x.
+	 * Returns an array [t1, t2] with two maps. keys(t1) < x < keys(t2).
+	 * The item with key x (if there is one) is in neither map, and this map is empty afterwards.
+	 */
+	//Time complexity is O(log n).
+	public IntIntAVLMap[] split(int x) {
+		IntIntAVLMap[] ret = new IntIntAVLMap[2];
+		ret[0] = new IntIntAVLMap(this.noEntryValue);
+		ret[1] = new IntIntAVLMap(this.noEntryValue);
+		splitInto(x, ret[0], ret[1]);
+		return ret;
+	}
+
+	/**
+	 * public void join(int k, int v, IntIntAVLMap t)
+	 *
+	 * joins the item (k, v) and the map t into this map. t is empty afterwards.
+	 * precondition: keys() < k < keys(t) or keys(t) < k < keys(), otherwise IllegalArgumentException is thrown.
+	 */
+	//Time complexity is O(|rank() - rank(t)| + 1).
+	public void join(int k, int v, IntIntAVLMap t) {
+		joinWith(new Entry(k, v), t, joinsAbove(k, t));
+	}
+}
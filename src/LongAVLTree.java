@@ -0,0 +1,187 @@
+/**
+ *
+ * LongAVLTree
+ *
+ * An AVL tree map with distinct primitive long keys (timestamps, 64-bit ids) and values of any type V.
+ * The keys are never boxed: the search reads the long key field of the nodes directly.
+ * Like the other specialized trees it keeps the sub-tree sizes, and supports split and join in O(log n).
+ *
+ */
+
+public class LongAVLTree<V> extends AbstractAVLTree<LongAVLTree.Entry<V>> {
+
+	//A node of the tree - a long key, a value and the structure fields
+	static final class Entry<V> extends AbstractAVLTree.Node<Entry<V>> {
+		final long key;
+		V value;
+
+		Entry(long key, V value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	/*
+	 * Searches for the key k with a single descent from the root, reading the key of each node once.
+	 * Returns the node with key k if it exists, otherwise the last node on the search path, or null if the tree is empty.
+	 * Time complexity is O(log n).
+	 */
+	final Entry<V> descend(long k) {
+		Entry<V> node = this.root;
+		Entry<V> last = null;
+		while(node != null) {
+			last = node;
+			long key = node.key;
+			if(k < key)
+				node = node.left;
+			else if(k > key)
+				node = node.right;
+			else
+				return node;
+		}
+		return last;
+	}
+
+	//Returns the node with key k, or null if there is no such node - O(log n)
+	final Entry<V> find(long k) {
+		Entry<V> node = descend(k);
+		return node != null && node.key == k ? node : null;
+	}
+
+	/**
+	 * public boolean containsKey(long k)
+	 *
+	 * returns true if and only if an item with key k exists in the tree - O(log n)
+	 */
+	public boolean containsKey(long k) {
+		return find(k) != null;
+	}
+
+	/**
+	 * public V get(long k)
+	 *
+	 * returns the value of the item with key k if it exists in the tree, otherwise returns null.
+	 */
+	//Time complexity is O(log n), a single descent from the root.
+	public V get(long k) {
+		Entry<V> node = find(k);
+		return node == null ? null : node.value;
+	}
+
+	/**
+	 * public V put(long k, V v)
+	 *
+	 * Sets the value of the key k to v, inserting a new item if there is no item with key k.
+	 * Returns the previous value of k, or null if there was no item with key k.
+	 */
+	//A single descent finds the node or the place to attach a new one - O(log n).
+	public V put(long k, V v) {
+		Entry<V> last = descend(k);
+		if(last != null && last.key == k) {
+			V old = last.value;
+			last.value = v;
+			return old;
+		}
+		attach(last, new Entry<V>(k, v), last != null && k < last.key);
+		return null;
+	}
+
+	/**
+	 * public V remove(long k)
+	 *
+	 * Removes the item with key k if it is there.
+	 * Returns its value, or null if there was no item with key k.
+	 */
+	//Time complexity is O(log n).
+	public V remove(long k) {
+		Entry<V> node = find(k);
+		if(node == null)
+			return null;
+		remove(node);
+		return node.value;
+	}
+
+	/**
+	 * public long minKey()
+	 *
+	 * Returns the smallest key in the tree, or -1 if the tree is empty - O(1)
+	 */
+	public long minKey() {
+		return this.min == null ? -1 : this.min.key;
+	}
+
+	/**
+	 * public long maxKey()
+	 *
+	 * Returns the largest key in the tree, or -1 if the tree is empty - O(1)
+	 */
+	public long maxKey() {
+		return this.max == null ? -1 : this.max.key;
+	}
+
+	/**
+	 * public long[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	//An in-order walk from the minimum with the successor function - O(n) time.
+	public long[] keysToArray() {
+		long[] arr = new long[size()];
+		int i = 0;
+		for(Entry<V> node = this.min; node != null; node = successor(node))
+			arr[i++] = node.key;
+		return arr;
+	}
+
+	/**
+	 * public Object[] valuesToArray()
+	 *
+	 * Returns an array which contains all values in the tree, sorted by their respective keys.
+	 */
+	//An in-order walk from the minimum - O(n) time.
+	public Object[] valuesToArray() {
+		Object[] arr = new Object[size()];
+		int i = 0;
+		for(Entry<V> node = this.min; node != null; node = successor(node))
+			arr[i++] = node.value;
+		return arr;
+	}
+
+	/**
+	 * public LongAVLTree<V>[] split(long x)
+	 *
+	 * splits the tree into 2 trees according to the key x.
+	 * Returns an array [t1, t2] with two trees. keys(t1) < x < keys(t2).
+	 * The item with key x (if there is one) is in neither tree, and this tree is empty afterwards.
+	 */
+	//Time complexity is O(log n).
+	@SuppressWarnings("unchecked")
+	public LongAVLTree<V>[] split(long x) {
+		LongAVLTree<V>[] ret = (LongAVLTree<V>[]) new LongAVLTree<?>[2];
+		ret[0] = new LongAVLTree<V>();
+		ret[1] = new LongAVLTree<V>();
+		Entry<V> last = descend(x);
+		if(last != null)
+			splitInto(last, Long.compare(x, last.key), ret[0], ret[1]);
+		return ret;
+	}
+
+	/**
+	 * public void join(long k, V v, LongAVLTree<V> t)
+	 *
+	 * joins the item (k, v) and the tree t into this tree. t is empty afterwards.
+	 * precondition: keys() < k < keys(t) or keys(t) < k < keys(), otherwise IllegalArgumentException is thrown.
+	 */
+	//Time complexity is O(|rank() - rank(t)| + 1).
+	public void join(long k, V v, LongAVLTree<V> t) {
+		boolean high;
+		if((this.empty() || this.max.key < k) && (t.empty() || t.min.key > k))
+			high = true;
+		else if((this.empty() || this.min.key > k) && (t.empty() || t.max.key < k))
+			high = false;
+		else
+			throw new IllegalArgumentException("the key " + k + " does not separate the keys of the two trees");
+		joinWith(new Entry<V>(k, v), t, high);
+	}
+}
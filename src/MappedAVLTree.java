@@ -0,0 +1,361 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * MappedAVLTree
+ *
+ * An OffHeapAVLTree whose arena is a memory-mapped file, so the tree outlives the process:
+ * open() on an existing file only reads its header, and the pages of records are mapped when they are first used
+ * and read from the disk by the operating system when they are touched.
+ *
+ * The file starts with a header of HEADER_SIZE bytes: magic, version, record size, page shift and the no-entry value,
+ * and two commit slots. A slot holds an epoch, root, n, min, max, the head of the free list, the number of used records,
+ * the number of pages and a CRC-32 of all of them. The slot with a valid CRC and the highest epoch is the committed tree.
+ * The pages of records follow the header, with the same layout as in OffHeapAVLTree, always in little endian byte order.
+ *
+ * force() is the commit point. The records change in place, so before a block of BLOCK_RECORDS records of the last commit
+ * changes for the first time in an epoch, its image is appended to an undo journal (the file with the suffix ".undo") and the
+ * journal is forced. force() writes the pages of records to the disk, and then the other slot with the next epoch, which
+ * makes the journal of the old epoch stale. open() writes the images of the journal of the committed epoch back, so after
+ * a crash at any point the file holds the tree of the last force() (or close()), and nothing that changed after it.
+ * The first change of a block after a force() costs a write and a force of the journal.
+ * Only the tree that opened the file is recorded in the header: the trees that split returns use the file for their nodes,
+ * but they are lost at close unless they are joined back into the opened tree.
+ *
+ */
+
+public class MappedAVLTree extends OffHeapAVLTree {
+	static final int MAGIC = 0x41564c54; //"AVLT"
+	static final int VERSION = 2;
+	static final int HEADER_SIZE = 4096;
+
+	//The layout of the header, in bytes
+	static final int H_MAGIC = 0;
+	static final int H_VERSION = 4;
+	static final int H_RECORD_SIZE = 8;
+	static final int H_PAGE_SHIFT = 12;
+	static final int H_NO_ENTRY_VALUE = 16;
+	static final int H_SLOTS = 64;  //The slot of epoch e is at H_SLOTS + (e & 1) * SLOT_SIZE
+	static final int SLOT_SIZE = 64;
+
+	//The layout of a commit slot, in bytes
+	static final int S_EPOCH = 0;
+	static final int S_ROOT = 8;
+	static final int S_N = 12;
+	static final int S_MIN = 16;
+	static final int S_MAX = 20;
+	static final int S_FREE = 24;
+	static final int S_USED = 28;
+	static final int S_PAGES = 32;
+	static final int S_CRC = 36;  //Of the bytes before it
+
+	//The layout of an entry of the undo journal: the image of a block as it was at the commit of the epoch
+	static final int BLOCK_SHIFT = 7;  //A block is 1 << 7 records, 4KB
+	static final int BLOCK_RECORDS = 1 << BLOCK_SHIFT;
+	static final int J_EPOCH = 0;
+	static final int J_BLOCK = 8;
+	static final int J_CRC = 12;  //Of the epoch, the block and the image
+	static final int J_IMAGE = 16;
+	static final int J_SIZE = J_IMAGE + (BLOCK_RECORDS << RECORD_SHIFT);
+
+	final MappedByteBuffer header;
+
+	/*
+	 * An arena whose pages are regions of the file. A page is mapped the first time one of its records is used,
+	 * and a new page extends the file. A block of records of the last commit is journaled before it first changes.
+	 */
+	static final class MappedArena extends OffHeapAVLTree.Arena {
+		final FileChannel channel;
+		final FileChannel journal;
+		final BitSet journaled = new BitSet(); //The blocks whose image is in the journal of this epoch
+		long epoch;         //The epoch of the last commit
+		int committed;      //The records of the last commit, the only ones whose changes must be undone after a crash
+		long journalSize;   //The bytes of the entries of this epoch
+
+		MappedArena(FileChannel channel, FileChannel journal, long epoch, int pageCount, int used, int free) {
+			super(new ByteBuffer[Math.max(pageCount, 4)], pageCount, used, free);
+			this.channel = channel;
+			this.journal = journal;
+			this.epoch = epoch;
+			this.committed = used;
+		}
+
+		ByteBuffer writable(int x) {
+			if(x < this.committed && !this.journaled.get(x >>> BLOCK_SHIFT))
+				journal(x >>> BLOCK_SHIFT);
+			return page(x);
+		}
+
+		//Appends the image of a block to the journal, and forces it before the block can change - O(BLOCK_RECORDS)
+		private void journal(int block) {
+			int first = block << BLOCK_SHIFT;
+			ByteBuffer image = page(first).duplicate();
+			image.limit(offset(first) + (BLOCK_RECORDS << RECORD_SHIFT)).position(offset(first));
+			ByteBuffer entry = ByteBuffer.allocate(J_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			entry.putLong(this.epoch).putInt(block).putInt(0).put(image);
+			entry.putInt(J_CRC, entryCrc(entry));
+			entry.flip();
+			try {
+				while(entry.hasRemaining())
+					this.journalSize += this.journal.write(entry, this.journalSize);
+				this.journal.force(false);
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			this.journaled.set(block);
+		}
+
+		//Starts the journal of a new epoch, once its commit is on the disk - O(1)
+		void commit(long epoch) {
+			this.epoch = epoch;
+			this.committed = this.used;
+			this.journalSize = 0;
+			this.journaled.clear();
+		}
+
+		ByteBuffer page(int x) {
+			ByteBuffer page = this.pages[x >>> PAGE_SHIFT];
+			return page != null ? page : map(x >>> PAGE_SHIFT);
+		}
+
+		ByteBuffer newPage(int index) {
+			return mapRegion(index);
+		}
+
+		//Maps a page of the file that was not used yet since the file was opened - O(1)
+		private ByteBuffer map(int index) {
+			ByteBuffer page = mapRegion(index);
+			this.pages[index] = page;
+			return page;
+		}
+
+		private MappedByteBuffer mapRegion(int index) {
+			long position = HEADER_SIZE + ((long) index << (PAGE_SHIFT + RECORD_SHIFT));
+			try {
+				MappedByteBuffer page = this.channel.map(FileChannel.MapMode.READ_WRITE, position, PAGE_RECORDS << RECORD_SHIFT);
+				page.order(ByteOrder.LITTLE_ENDIAN);
+				return page;
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/*
+		 * Drops the pages and closes the file and the journal, whichever tree of the file closes the arena first.
+		 * The journal is emptied only if it has nothing to undo, that is right after a commit.
+		 * Otherwise the next open() undoes the changes since the last commit. Time Complexity is O(1).
+		 */
+		void close() {
+			if(!isOpen())
+				return;
+			super.close();
+			try {
+				this.channel.close();
+				if(this.journalSize == 0)
+					this.journal.truncate(0);
+				this.journal.close();
+			}
+			catch(IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		//Writes the mapped pages to the disk - O(number of pages that were used)
+		void force() {
+			for(int i = 0; i < this.pageCount; i++) {
+				if(this.pages[i] != null)
+					((MappedByteBuffer) this.pages[i]).force();
+			}
+		}
+	}
+
+	//The CRC-32 of the bytes [from, to) of a buffer - O(to - from)
+	static void update(CRC32 crc, ByteBuffer buffer, int from, int to) {
+		ByteBuffer range = buffer.duplicate();
+		range.limit(to).position(from);
+		crc.update(range);
+	}
+
+	//The CRC-32 of a journal entry, without its CRC field - O(J_SIZE)
+	static int entryCrc(ByteBuffer entry) {
+		CRC32 crc = new CRC32();
+		update(crc, entry, 0, J_CRC);
+		update(crc, entry, J_IMAGE, J_SIZE);
+		return (int) crc.getValue();
+	}
+
+	//The CRC-32 of a commit slot, without its CRC field - O(1)
+	static int slotCrc(ByteBuffer header, int slot) {
+		CRC32 crc = new CRC32();
+		update(crc, header, slot, slot + S_CRC);
+		return (int) crc.getValue();
+	}
+
+	//The slot of the last commit: the one with a valid CRC and the highest epoch, or -1 if there is none - O(1)
+	static int committedSlot(ByteBuffer header) {
+		int found = -1;
+		for(int slot = H_SLOTS; slot < H_SLOTS + 2 * SLOT_SIZE; slot += SLOT_SIZE) {
+			if(header.getInt(slot + S_CRC) == slotCrc(header, slot)
+					&& (found < 0 || header.getLong(slot + S_EPOCH) > header.getLong(found + S_EPOCH)))
+				found = slot;
+		}
+		return found;
+	}
+
+	//Writes the images of the journal of the given epoch back to the file, and empties the journal - O(size of the journal)
+	static void recover(FileChannel channel, FileChannel journal, long epoch) throws IOException {
+		ByteBuffer entry = ByteBuffer.allocate(J_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		boolean restored = false;
+		for(long position = 0; ; position += J_SIZE) {
+			entry.clear();
+			while(entry.hasRemaining() && journal.read(entry, position + entry.position()) > 0);
+			//A stale entry of an older epoch, or a torn one, ends the journal of this epoch
+			if(entry.hasRemaining() || entry.getLong(J_EPOCH) != epoch || entry.getInt(J_CRC) != entryCrc(entry))
+				break;
+			long at = HEADER_SIZE + ((long) entry.getInt(J_BLOCK) << (BLOCK_SHIFT + RECORD_SHIFT));
+			entry.position(J_IMAGE);
+			while(entry.hasRemaining())
+				channel.write(entry, at + entry.position() - J_IMAGE);
+			restored = true;
+		}
+		if(restored)
+			channel.force(false);
+		journal.truncate(0);
+		journal.force(false);
+	}
+
+	//The undo journal of a tree file
+	static Path journalOf(Path file) {
+		return file.resolveSibling(file.getFileName() + ".undo");
+	}
+
+	private MappedAVLTree(MappedArena arena, long noEntryValue, MappedByteBuffer header) {
+		super(arena, noEntryValue);
+		this.header = header;
+	}
+
+	/**
+	 * public static MappedAVLTree open(Path file)
+	 *
+	 * Opens the tree that is stored in the file, or a new empty tree with the no-entry value 0 if the file is missing or empty.
+	 * If the process or the machine crashed after the last force(), the changes after it are undone first.
+	 * Throws IOException if the file is not a tree file of this version, or was never committed.
+	 */
+	public static MappedAVLTree open(Path file) throws IOException {
+		return open(file, 0);
+	}
+
+	/**
+	 * public static MappedAVLTree open(Path file, long noEntryValue)
+	 *
+	 * Like open(file), with the no-entry value of a new tree. An existing tree keeps the no-entry value it was created with.
+	 */
+	//Only the header and the journal are read - O(size of the journal) time complexity, whatever the size of the tree.
+	public static MappedAVLTree open(Path file, long noEntryValue) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		FileChannel journal = null;
+		try {
+			journal = FileChannel.open(journalOf(file), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			boolean fresh = channel.size() == 0;
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			MappedAVLTree tree;
+			if(fresh) {
+				header.putInt(H_MAGIC, MAGIC);
+				header.putInt(H_VERSION, VERSION);
+				header.putInt(H_RECORD_SIZE, 1 << RECORD_SHIFT);
+				header.putInt(H_PAGE_SHIFT, PAGE_SHIFT);
+				header.putLong(H_NO_ENTRY_VALUE, noEntryValue);
+				MappedArena arena = new MappedArena(channel, journal, 0, 0, 1, NIL);
+				arena.format();
+				tree = new MappedAVLTree(arena, noEntryValue, header);
+				tree.force();
+			}
+			else {
+				if(header.getInt(H_MAGIC) != MAGIC)
+					throw new IOException(file + " is not an AVL tree file");
+				if(header.getInt(H_VERSION) != VERSION)
+					throw new IOException(file + " has the unsupported version " + header.getInt(H_VERSION));
+				if(header.getInt(H_RECORD_SIZE) != 1 << RECORD_SHIFT || header.getInt(H_PAGE_SHIFT) != PAGE_SHIFT)
+					throw new IOException(file + " has a different record layout");
+				int slot = committedSlot(header);
+				if(slot < 0)
+					throw new IOException(file + " was never committed");
+				long epoch = header.getLong(slot + S_EPOCH);
+				int pageCount = header.getInt(slot + S_PAGES);
+				if(channel.size() < HEADER_SIZE + ((long) pageCount << (PAGE_SHIFT + RECORD_SHIFT)))
+					throw new IOException(file + " is truncated");
+				recover(channel, journal, epoch);
+				MappedArena arena = new MappedArena(channel, journal, epoch, pageCount, header.getInt(slot + S_USED), header.getInt(slot + S_FREE));
+				tree = new MappedAVLTree(arena, header.getLong(H_NO_ENTRY_VALUE), header);
+				tree.root = header.getInt(slot + S_ROOT);
+				tree.min = header.getInt(slot + S_MIN);
+				tree.max = header.getInt(slot + S_MAX);
+			}
+			return tree;
+		}
+		catch(IOException | RuntimeException e) {
+			channel.close();
+			if(journal != null)
+				journal.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * public void force()
+	 *
+	 * Commits the tree: writes the pages of records to the disk first, and then the slot of the next epoch,
+	 * which records root, n, min and max. The next open() of the file sees the tree as it is now, even after a crash.
+	 */
+	//Time complexity is O(number of pages that were used since the file was opened), plus the disk writes.
+	public void force() {
+		ensureOpen();
+		MappedArena arena = (MappedArena) this.arena;
+		arena.force();
+		long epoch = arena.epoch + 1;
+		int slot = H_SLOTS + (int) (epoch & 1) * SLOT_SIZE; //The slot of the commit before the last one
+		MappedByteBuffer header = this.header;
+		header.putLong(slot + S_EPOCH, epoch);
+		header.putInt(slot + S_ROOT, this.root);
+		header.putInt(slot + S_N, size(this.root));
+		header.putInt(slot + S_MIN, this.min);
+		header.putInt(slot + S_MAX, this.max);
+		header.putInt(slot + S_FREE, arena.free);
+		header.putInt(slot + S_USED, arena.used);
+		header.putInt(slot + S_PAGES, arena.pageCount);
+		header.putInt(slot + S_CRC, slotCrc(header, slot));
+		header.force();
+		arena.commit(epoch);
+	}
+
+	/**
+	 * public void close()
+	 *
+	 * Forces the tree to the disk and closes the file. This tree and all the trees that share its file cannot be used anymore.
+	 * Closing a closed tree does nothing. An IOException of the file is thrown as UncheckedIOException.
+	 * If a tree that shares the file (like a tree of split) is closed first, it closes the file without a commit,
+	 * and the next open() sees the tree of the last force().
+	 */
+	public void close() {
+		if(!this.arena.isOpen())
+			return;
+		try {
+			force();
+		}
+		finally {
+			super.close();
+		}
+	}
+}
@@ -0,0 +1,344 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ *
+ * OffHeapAVLTree
+ *
+ * An AVL tree with distinct int keys and long values whose nodes live outside of the Java heap,
+ * in direct ByteBuffers, so a tree of hundreds of millions of items adds almost nothing for the garbage collector to trace.
+ * A node is a 32 byte record: left, right and parent indexes, key, rank, size and the value.
+ * The records are kept in pages of PAGE_RECORDS records, so the storage is not bounded by the 2GB limit of a single buffer.
+ * The balancing, split and join code is the one of AbstractIndexedAVLTree, like ArrayAVLTree.
+ *
+ * The storage of the nodes (the arena) is shared by the trees that split returns, and join only joins trees of the same arena.
+ * close() closes the arena of the tree, and so all the trees of the arena: any later operation on them throws IllegalStateException.
+ * The pages are released when the buffers are collected, as Java 8 has no way to free a direct buffer explicitly.
+ * An arena is not thread safe, and so neither are its trees.
+ *
+ */
+
+public class OffHeapAVLTree extends AbstractIndexedAVLTree implements AutoCloseable {
+	//The layout of a node record, in bytes
+	static final int LEFT = 0;
+	static final int RIGHT = 4;
+	static final int PARENT = 8;
+	static final int KEY = 12;
+	static final int RANK = 16;
+	static final int SIZE = 20;
+	static final int VALUE = 24;
+	static final int RECORD_SHIFT = 5; //A record is 1 << 5 = 32 bytes
+
+	static final int PAGE_SHIFT = 15;  //A page holds 1 << 15 records, 1MB
+	static final int PAGE_RECORDS = 1 << PAGE_SHIFT;
+	static final int PAGE_MASK = PAGE_RECORDS - 1;
+
+	final Arena arena;       //The storage of the nodes, shared with the trees that were split from this one
+	final long noEntryValue; //The value that is returned for a missing key
+
+	/*
+	 * The node storage: pages of records, indexed by the node index.
+	 * Record 0 is the virtual leaf NIL (rank -1, size 0). The free records are linked through their left field.
+	 */
+	static class Arena {
+		ByteBuffer[] pages;
+		int pageCount;
+		int used;  //The number of records that were ever used, including NIL
+		int free;  //The first record of the free list, NIL if the list is empty
+
+		//A new arena with the page of NIL only
+		Arena() {
+			this(new ByteBuffer[4], 0, 1, NIL);
+			format();
+		}
+
+		//An arena over existing pages (null pages are created by page), for the subclasses that keep the records elsewhere
+		Arena(ByteBuffer[] pages, int pageCount, int used, int free) {
+			this.pages = pages;
+			this.pageCount = pageCount;
+			this.used = used;
+			this.free = free;
+		}
+
+		//Adds the first page and makes record 0 the virtual leaf - O(PAGE_RECORDS)
+		final void format() {
+			addPage();
+			ByteBuffer nil = this.pages[0];
+			nil.putInt(RANK, -1);
+			nil.putInt(SIZE, 0);
+		}
+
+		//The page of a record - O(1)
+		ByteBuffer page(int x) {
+			return this.pages[x >>> PAGE_SHIFT];
+		}
+
+		//The page of a record that is about to change, for the subclasses that must act before a record changes - O(1)
+		ByteBuffer writable(int x) {
+			return page(x);
+		}
+
+		//The offset of a record in its page - O(1)
+		static int offset(int x) {
+			return (x & PAGE_MASK) << RECORD_SHIFT;
+		}
+
+		//Returns a leaf with key k and value v, from the free list or from the unused records - amortized O(1)
+		int allocate(int k, long v) {
+			int x = this.free;
+			if(x != NIL)
+				this.free = page(x).getInt(offset(x) + LEFT);
+			else {
+				if(this.used == this.pageCount << PAGE_SHIFT)
+					addPage();
+				x = this.used++;
+			}
+			ByteBuffer page = writable(x);
+			int off = offset(x);
+			page.putInt(off + LEFT, NIL);
+			page.putInt(off + RIGHT, NIL);
+			page.putInt(off + PARENT, NIL);
+			page.putInt(off + KEY, k);
+			page.putInt(off + RANK, 0);
+			page.putInt(off + SIZE, 1);
+			page.putLong(off + VALUE, v);
+			return x;
+		}
+
+		//Puts a removed record on the free list - O(1)
+		void release(int x) {
+			writable(x).putInt(offset(x) + LEFT, this.free);
+			this.free = x;
+		}
+
+		//A new empty page for the records of the page with the given index, in the native byte order - O(PAGE_RECORDS)
+		ByteBuffer newPage(int index) {
+			return ByteBuffer.allocateDirect(PAGE_RECORDS << RECORD_SHIFT).order(ByteOrder.nativeOrder());
+		}
+
+		//Allocates one more page of records - O(PAGE_RECORDS)
+		private void addPage() {
+			if(this.pageCount == this.pages.length) {
+				if(this.pageCount == 1 << (31 - PAGE_SHIFT))
+					throw new IllegalStateException("the arena is full");
+				ByteBuffer[] pages = new ByteBuffer[this.pageCount * 2];
+				System.arraycopy(this.pages, 0, pages, 0, this.pageCount);
+				this.pages = pages;
+			}
+			this.pages[this.pageCount] = newPage(this.pageCount);
+			this.pageCount++;
+		}
+
+		//Drops the pages, so they can be collected - O(1)
+		void close() {
+			this.pages = null;
+			this.pageCount = 0;
+		}
+
+		boolean isOpen() {
+			return this.pages != null;
+		}
+	}
+
+	//Builds an empty tree with a new arena, whose no-entry value is 0 - O(PAGE_RECORDS)
+	public OffHeapAVLTree() {
+		this(0);
+	}
+
+	//Builds an empty tree with a new arena and the given no-entry value - O(PAGE_RECORDS)
+	public OffHeapAVLTree(long noEntryValue) {
+		this.arena = new Arena();
+		this.noEntryValue = noEntryValue;
+	}
+
+	//Builds an empty tree over the given arena - O(1)
+	OffHeapAVLTree(Arena arena, long noEntryValue) {
+		this.arena = arena;
+		this.noEntryValue = noEntryValue;
+	}
+
+	//Builds an empty tree that shares the arena (and the no-entry value) of the given tree, so the two trees can be joined - O(1)
+	public OffHeapAVLTree(OffHeapAVLTree sibling) {
+		this.arena = sibling.arena;
+		this.noEntryValue = sibling.noEntryValue;
+	}
+
+	final int key(int x) { return this.arena.page(x).getInt(Arena.offset(x) + KEY); }
+	final int left(int x) { return this.arena.page(x).getInt(Arena.offset(x) + LEFT); }
+	final int right(int x) { return this.arena.page(x).getInt(Arena.offset(x) + RIGHT); }
+	final int parent(int x) { return this.arena.page(x).getInt(Arena.offset(x) + PARENT); }
+	final int rank(int x) { return this.arena.page(x).getInt(Arena.offset(x) + RANK); }
+	final int size(int x) { return this.arena.page(x).getInt(Arena.offset(x) + SIZE); }
+	final long value(int x) { return this.arena.page(x).getLong(Arena.offset(x) + VALUE); }
+	final void setLeft(int x, int v) { this.arena.writable(x).putInt(Arena.offset(x) + LEFT, v); }
+	final void setRight(int x, int v) { this.arena.writable(x).putInt(Arena.offset(x) + RIGHT, v); }
+	final void setParent(int x, int v) { this.arena.writable(x).putInt(Arena.offset(x) + PARENT, v); }
+	final void setRank(int x, int v) { this.arena.writable(x).putInt(Arena.offset(x) + RANK, v); }
+	final void setSize(int x, int v) { this.arena.writable(x).putInt(Arena.offset(x) + SIZE, v); }
+
+	//Throws IllegalStateException if the arena of this tree was closed - O(1)
+	final void ensureOpen() {
+		if(!this.arena.isOpen())
+			throw new IllegalStateException("the tree is closed");
+	}
+
+	public boolean empty() {
+		ensureOpen();
+		return super.empty();
+	}
+
+	public int size() {
+		ensureOpen();
+		return super.size();
+	}
+
+	public boolean containsKey(int k) {
+		ensureOpen();
+		return super.containsKey(k);
+	}
+
+	public int minKey() {
+		ensureOpen();
+		return super.minKey();
+	}
+
+	public int maxKey() {
+		ensureOpen();
+		return super.maxKey();
+	}
+
+	public int[] keysToArray() {
+		ensureOpen();
+		return super.keysToArray();
+	}
+
+	/**
+	 * public long search(int k)
+	 *
+	 * returns the value of an item with key k if it exists in the tree
+	 * otherwise, returns the no-entry value
+	 */
+	//Time complexity is O(log n), a single descent from the root.
+	public long search(int k) {
+		ensureOpen();
+		int x = find(k);
+		return x == NIL ? this.noEntryValue : value(x);
+	}
+
+	/**
+	 * public int insert(int k, long v)
+	 *
+	 * inserts an item with key k and value v to the AVL tree.
+	 * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+	 * They are counted as in AVLTree.insert, so both trees return the same number for the same keys.
+	 * returns -1 if an item with key k already exists in the tree.
+	 */
+	//A single descent and one record of the arena - O(log n).
+	public int insert(int k, long v) {
+		ensureOpen();
+		int last = descend(k);
+		if(last != NIL && key(last) == k)
+			return -1;
+		return attach(last, this.arena.allocate(k, v), last != NIL && k < key(last));
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the binary tree, if it is there.
+	 * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+	 * They are counted as in AVLTree.delete.
+	 * returns -1 if an item with key k was not found in the tree.
+	 */
+	//The record of the node goes back to the free list - O(log n).
+	public int delete(int k) {
+		ensureOpen();
+		int y = find(k);
+		if(y == NIL)
+			return -1;
+		int ops = remove(y);
+		this.arena.release(y);
+		return ops;
+	}
+
+	/**
+	 * public long min()
+	 *
+	 * Returns the value of the item with the smallest key in the tree,
+	 * or the no-entry value if the tree is empty - O(1)
+	 */
+	public long min() {
+		ensureOpen();
+		return this.min == NIL ? this.noEntryValue : value(this.min);
+	}
+
+	/**
+	 * public long max()
+	 *
+	 * Returns the value of the item with the largest key in the tree,
+	 * or the no-entry value if the tree is empty - O(1)
+	 */
+	public long max() {
+		ensureOpen();
+		return this.max == NIL ? this.noEntryValue : value(this.max);
+	}
+
+	/**
+	 * public long[] valuesToArray()
+	 *
+	 * Returns an array which contains all values in the tree, sorted by their respective keys.
+	 */
+	//An in-order walk from the minimum - O(n) time.
+	public long[] valuesToArray() {
+		ensureOpen();
+		long[] arr = new long[size()];
+		int i = 0;
+		for(int x = this.min; x != NIL; x = successor(x))
+			arr[i++] = value(x);
+		return arr;
+	}
+
+	/**
+	 * public OffHeapAVLTree[] split(int x)
+	 *
+	 * splits the tree into 2 trees according to the key x.
+	 * Returns an array [t1, t2] with two AVL trees of the arena of this tree. keys(t1) < x < keys(t2).
+	 * The item with key x (if there is one) is in neither tree, and this tree is empty afterwards.
+	 */
+	//Time complexity is O(log n). The record of the item with key x goes back to the free list.
+	public OffHeapAVLTree[] split(int x) {
+		ensureOpen();
+		OffHeapAVLTree[] ret = { new OffHeapAVLTree(this), new OffHeapAVLTree(this) };
+		int y = splitInto(x, ret[0], ret[1]);
+		if(y != NIL)
+			this.arena.release(y);
+		return ret;
+	}
+
+	/**
+	 * public int join(int k, long v, OffHeapAVLTree t)
+	 *
+	 * joins the item (k, v) and the tree t, of the arena of this tree, into this tree. t is empty afterwards.
+	 * precondition: keys() < k < keys(t) or keys(t) < k < keys(), otherwise IllegalArgumentException is thrown.
+	 * returns the complexity of the operation (|tree.rank - t.rank| + 1).
+	 */
+	//Time complexity is O(|rank() - rank(t)| + 1).
+	public int join(int k, long v, OffHeapAVLTree t) {
+		ensureOpen();
+		if(t.arena != this.arena)
+			throw new IllegalArgumentException("the trees do not share their arena");
+		boolean high = joinsAbove(k, t);
+		return joinWith(this.arena.allocate(k, v), t, high);
+	}
+
+	/**
+	 * public void close()
+	 *
+	 * Closes the arena of this tree: this tree and all the trees that share its arena cannot be used anymore.
+	 * Closing a closed tree does nothing.
+	 */
+	public void close() {
+		this.arena.close();
+		this.clear();
+	}
+}
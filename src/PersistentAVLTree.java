@@ -0,0 +1,381 @@
+/**
+ *
+ * PersistentAVLTree
+ *
+ * An AVL tree with distinct int keys and String info whose nodes never change once they are built.
+ * An insert, delete, split or join copies only the nodes on the paths it changes (O(log n) of them)
+ * and shares all the other nodes with the versions before it, so every old version stays valid.
+ * The nodes have no parent pointers, as a node may be shared by many versions.
+ *
+ * The tree holds its current version in a volatile root. snapshot() returns another tree with the same root in O(1),
+ * which is a point in time view that later changes of either tree never touch, and that is read without any locks.
+ * The changes of one tree are synchronized on it, so a tree can be changed by many threads and read by others at the same time.
+ *
+ */
+
+public class PersistentAVLTree {
+	volatile Node root; //The current version, null when the tree is empty
+
+	/*
+	 * An immutable node. Its height and the size of its sub-tree are set when it is built.
+	 */
+	static final class Node {
+		final int key;
+		final String info;
+		final Node left;
+		final Node right;
+		final int height; //A leaf has height 1, and null has height 0
+		final int size;
+
+		Node(Node left, int key, String info, Node right) {
+			this.key = key;
+			this.info = info;
+			this.left = left;
+			this.right = right;
+			this.height = 1 + Math.max(height(left), height(right));
+			this.size = 1 + size(left) + size(right);
+		}
+	}
+
+	//Builds an empty tree - O(1)
+	public PersistentAVLTree() {
+	}
+
+	//Builds a tree whose current version is the given root - O(1)
+	private PersistentAVLTree(Node root) {
+		this.root = root;
+	}
+
+	static int height(Node node) {
+		return node == null ? 0 : node.height;
+	}
+
+	static int size(Node node) {
+		return node == null ? 0 : node.size;
+	}
+
+	/**
+	 * public PersistentAVLTree snapshot()
+	 *
+	 * Returns a tree with the current version of this tree. Changes of this tree after the call are not seen by the snapshot,
+	 * and changes of the snapshot are not seen by this tree - O(1)
+	 */
+	public PersistentAVLTree snapshot() {
+		return new PersistentAVLTree(this.root);
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return this.root == null;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of items in the tree - O(1)
+	 */
+	public int size() {
+		return size(this.root);
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	//Time complexity is O(log n), on the version that was current when the search began.
+	public String search(int k) {
+		Node node = find(this.root, k);
+		return node == null ? null : node.info;
+	}
+
+	/**
+	 * public boolean containsKey(int k)
+	 *
+	 * returns true if and only if an item with key k exists in the tree - O(log n)
+	 */
+	public boolean containsKey(int k) {
+		return find(this.root, k) != null;
+	}
+
+	static Node find(Node node, int k) {
+		while(node != null && node.key != k)
+			node = k < node.key ? node.left : node.right;
+		return node;
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the tree, as a new version.
+	 * returns 0 if it was inserted, or -1 if an item with key k already exists in the tree.
+	 */
+	//Copies the O(log n) nodes of the path to the new leaf, and the nodes of its rotations.
+	public synchronized int insert(int k, String i) {
+		Node root = this.root;
+		Node newRoot = insert(root, k, i);
+		if(newRoot == root)
+			return -1;
+		this.root = newRoot;
+		return 0;
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there, as a new version.
+	 * returns 0 if it was deleted, or -1 if an item with key k was not found in the tree.
+	 */
+	//Copies the O(log n) nodes of the path to the item and to its successor.
+	public synchronized int delete(int k) {
+		Node root = this.root;
+		Node newRoot = delete(root, k);
+		if(newRoot == root)
+			return -1;
+		this.root = newRoot;
+		return 0;
+	}
+
+	/**
+	 * public String min()
+	 *
+	 * Returns the info of the item with the smallest key in the tree,
+	 * or null if the tree is empty - O(log n)
+	 */
+	public String min() {
+		Node node = first(this.root);
+		return node == null ? null : node.info;
+	}
+
+	/**
+	 * public String max()
+	 *
+	 * Returns the info of the item with the largest key in the tree,
+	 * or null if the tree is empty - O(log n)
+	 */
+	public String max() {
+		Node node = last(this.root);
+		return node == null ? null : node.info;
+	}
+
+	/**
+	 * public int minKey()
+	 *
+	 * Returns the smallest key in the tree, or -1 if the tree is empty - O(log n)
+	 */
+	public int minKey() {
+		Node node = first(this.root);
+		return node == null ? -1 : node.key;
+	}
+
+	/**
+	 * public int maxKey()
+	 *
+	 * Returns the largest key in the tree, or -1 if the tree is empty - O(log n)
+	 */
+	public int maxKey() {
+		Node node = last(this.root);
+		return node == null ? -1 : node.key;
+	}
+
+	static Node first(Node node) {
+		if(node != null)
+			while(node.left != null)
+				node = node.left;
+		return node;
+	}
+
+	static Node last(Node node) {
+		if(node != null)
+			while(node.right != null)
+				node = node.right;
+		return node;
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	//An in-order walk of one version - O(n) time.
+	public int[] keysToArray() {
+		Node root = this.root;
+		int[] arr = new int[size(root)];
+		keysToArray(root, arr, 0);
+		return arr;
+	}
+
+	private static int keysToArray(Node node, int[] arr, int index) {
+		if(node == null)
+			return index;
+		index = keysToArray(node.left, arr, index);
+		arr[index++] = node.key;
+		return keysToArray(node.right, arr, index);
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	//An in-order walk of one version - O(n) time.
+	public String[] infoToArray() {
+		Node root = this.root;
+		String[] arr = new String[size(root)];
+		infoToArray(root, arr, 0);
+		return arr;
+	}
+
+	private static int infoToArray(Node node, String[] arr, int index) {
+		if(node == null)
+			return index;
+		index = infoToArray(node.left, arr, index);
+		arr[index++] = node.info;
+		return infoToArray(node.right, arr, index);
+	}
+
+	/**
+	 * public PersistentAVLTree[] split(int x)
+	 *
+	 * splits the tree into 2 trees according to the key x.
+	 * Returns an array [t1, t2] with two AVL trees. keys(t1) < x < keys(t2).
+	 * The item with key x (if there is one) is in neither tree.
+	 * Unlike AVLTree.split, this tree is not changed: the new trees share its nodes.
+	 */
+	//Time complexity is O(log n): a join per node of the path, whose costs add up to O(log n). It copies O(log n) nodes.
+	public PersistentAVLTree[] split(int x) {
+		Node[] parts = split(this.root, x);
+		return new PersistentAVLTree[] { new PersistentAVLTree(parts[0]), new PersistentAVLTree(parts[2]) };
+	}
+
+	/**
+	 * public int join(int k, String i, PersistentAVLTree t)
+	 *
+	 * joins the item (k, i) and the tree t into this tree, as a new version.
+	 * precondition: keys() < k < keys(t) or keys(t) < k < keys(), otherwise IllegalArgumentException is thrown.
+	 * returns the complexity of the operation (|tree.rank - t.rank| + 1).
+	 * Unlike AVLTree.join, t is not changed: this tree shares its nodes.
+	 */
+	//Time complexity is O(|rank() - rank(t)| + 1), and it copies as many nodes.
+	public synchronized int join(int k, String i, PersistentAVLTree t) {
+		Node root = this.root;
+		Node other = t.root;
+		Node high = last(root);
+		Node low = first(other);
+		boolean above = (high == null || high.key < k) && (low == null || k < low.key); //this tree is on the left of k
+		if(!above) {
+			Node otherHigh = last(other);
+			Node thisLow = first(root);
+			if(!((otherHigh == null || otherHigh.key < k) && (thisLow == null || k < thisLow.key)))
+				throw new IllegalArgumentException("the keys of the trees are not on the two sides of " + k);
+		}
+		int complexity = Math.abs(height(root) - height(other)) + 1;
+		this.root = above ? join(root, k, i, other) : join(other, k, i, root);
+		return complexity;
+	}
+
+	/*
+	 * From here go the functional operations on versions: they return the root of a new version
+	 * (or the same root when nothing changed), and never change a node.
+	 */
+
+	//Time complexity is O(log n).
+	static Node insert(Node node, int k, String i) {
+		if(node == null)
+			return new Node(null, k, i, null);
+		if(k < node.key) {
+			Node left = insert(node.left, k, i);
+			return left == node.left ? node : balance(left, node.key, node.info, node.right);
+		}
+		if(k > node.key) {
+			Node right = insert(node.right, k, i);
+			return right == node.right ? node : balance(node.left, node.key, node.info, right);
+		}
+		return node;
+	}
+
+	//Time complexity is O(log n).
+	static Node delete(Node node, int k) {
+		if(node == null)
+			return null;
+		if(k < node.key) {
+			Node left = delete(node.left, k);
+			return left == node.left ? node : balance(left, node.key, node.info, node.right);
+		}
+		if(k > node.key) {
+			Node right = delete(node.right, k);
+			return right == node.right ? node : balance(node.left, node.key, node.info, right);
+		}
+		if(node.left == null)
+			return node.right;
+		if(node.right == null)
+			return node.left;
+		Node successor = first(node.right);
+		return balance(node.left, successor.key, successor.info, deleteFirst(node.right));
+	}
+
+	//Deletes the item with the smallest key of a non-empty sub-tree - O(log n)
+	static Node deleteFirst(Node node) {
+		if(node.left == null)
+			return node.right;
+		return balance(deleteFirst(node.left), node.key, node.info, node.right);
+	}
+
+	/*
+	 * Builds a node of (left, k, i, right) when the heights of left and right differ by at most 2,
+	 * with a single or a double rotation if they differ by 2 - O(1)
+	 */
+	static Node balance(Node left, int k, String i, Node right) {
+		int hl = height(left);
+		int hr = height(right);
+		if(hl > hr + 1) {
+			if(height(left.left) >= height(left.right))
+				return new Node(left.left, left.key, left.info, new Node(left.right, k, i, right));
+			Node lr = left.right;
+			return new Node(new Node(left.left, left.key, left.info, lr.left), lr.key, lr.info, new Node(lr.right, k, i, right));
+		}
+		if(hr > hl + 1) {
+			if(height(right.right) >= height(right.left))
+				return new Node(new Node(left, k, i, right.left), right.key, right.info, right.right);
+			Node rl = right.left;
+			return new Node(new Node(left, k, i, rl.left), rl.key, rl.info, new Node(rl.right, right.key, right.info, right.right));
+		}
+		return new Node(left, k, i, right);
+	}
+
+	//Joins left < k < right: goes down the spine of the higher tree to the height of the other one - O(|rank(left) - rank(right)| + 1)
+	static Node join(Node left, int k, String i, Node right) {
+		int hl = height(left);
+		int hr = height(right);
+		if(hl > hr + 1)
+			return balance(left.left, left.key, left.info, join(left.right, k, i, right));
+		if(hr > hl + 1)
+			return balance(join(left, k, i, right.left), right.key, right.info, right.right);
+		return new Node(left, k, i, right);
+	}
+
+	//Returns {the keys < k, the node of k or null, the keys > k} - O(log n)
+	static Node[] split(Node node, int k) {
+		if(node == null)
+			return new Node[3];
+		if(k < node.key) {
+			Node[] parts = split(node.left, k);
+			parts[2] = join(parts[2], node.key, node.info, node.right);
+			return parts;
+		}
+		if(k > node.key) {
+			Node[] parts = split(node.right, k);
+			parts[0] = join(node.left, node.key, node.info, parts[0]);
+			return parts;
+		}
+		return new Node[] { node.left, node, node.right };
+	}
+}
@@ -0,0 +1,449 @@
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ *
+ * ShardedAVLTree
+ *
+ * A thread safe map of distinct int keys to String info, made of a fixed number of AVLTree shards, one per key range.
+ * Every shard has its own ReentrantReadWriteLock, so operations on different shards never wait for each other,
+ * and searches of the same shard run at the same time.
+ *
+ * Shard i holds the keys in [low(i), low(i + 1)). The ranges start even over all the ints (or as the constructor is told),
+ * and they are moved between neighbours with split and join when one shard gets much larger than its neighbour:
+ * after an insert that makes a shard larger than twice its neighbour plus MIN_MOVE, and on rebalance().
+ * A move locks both shards, always the left one first, and the operations that looked up a shard by an old range
+ * find out under its lock that the key is not in its range anymore, and look again.
+ *
+ * keysToArray, infoToArray, keysInRange, minKey and maxKey lock the shards they read in key order,
+ * so they see one point in time of all those shards, and their results are the results of the shards one after the other.
+ *
+ */
+
+public class ShardedAVLTree {
+	public static final int DEFAULT_SHARDS = 16;
+	static final int MIN_MOVE = 1024; //The difference of sizes below which neighbours are not rebalanced
+
+	final Shard[] shards;
+
+	/*
+	 * A shard: its tree and size are guarded by its lock. low is written under the locks of the shard and of its left neighbour,
+	 * and read without a lock to find the shard of a key, which is checked again under the lock.
+	 */
+	static final class Shard {
+		final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		AVLTree tree = new AVLTree();
+		volatile int size;
+		volatile long low; //The smallest key of the range of the shard, a long so the ranges can end after Integer.MAX_VALUE
+
+		Shard(long low) {
+			this.low = low;
+		}
+	}
+
+	//Builds an empty tree of DEFAULT_SHARDS shards, whose ranges are even over all the ints - O(shards)
+	public ShardedAVLTree() {
+		this(DEFAULT_SHARDS);
+	}
+
+	//Builds an empty tree of the given number of shards, whose ranges are even over all the ints - O(shards)
+	public ShardedAVLTree(int shards) {
+		if(shards < 1)
+			throw new IllegalArgumentException("the number of shards must be positive: " + shards);
+		this.shards = new Shard[shards];
+		long span = (1L << 32) / shards;
+		for(int i = 0; i < shards; i++)
+			this.shards[i] = new Shard(Integer.MIN_VALUE + i * span);
+		this.shards[0].low = Integer.MIN_VALUE;
+	}
+
+	/*
+	 * Builds an empty tree with a shard for every range between the given bounds, which must be increasing:
+	 * the first shard holds the keys below bounds[0], and shard i holds the keys in [bounds[i - 1], bounds[i]) - O(shards)
+	 */
+	public ShardedAVLTree(int[] bounds) {
+		for(int i = 1; i < bounds.length; i++) {
+			if(bounds[i - 1] >= bounds[i])
+				throw new IllegalArgumentException("the bounds are not increasing at " + i);
+		}
+		this.shards = new Shard[bounds.length + 1];
+		this.shards[0] = new Shard(Integer.MIN_VALUE);
+		for(int i = 0; i < bounds.length; i++)
+			this.shards[i + 1] = new Shard(bounds[i]);
+	}
+
+	//The index of the shard whose range holds k, by the ranges as they are now - O(log shards)
+	private int shardOf(int k) {
+		Shard[] shards = this.shards;
+		int lo = 0;
+		int hi = shards.length - 1;
+		while(lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if(shards[mid].low <= k)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/*
+	 * true if k is in the range of shard i. The caller holds the lock of shard i,
+	 * and the bounds of its range only change under that lock, so the answer stays true until it releases it - O(1)
+	 */
+	private boolean owns(int i, int k) {
+		return this.shards[i].low <= k && (i + 1 == this.shards.length || k < this.shards[i + 1].low);
+	}
+
+	/**
+	 * public boolean empty()
+	 *
+	 * returns true if and only if the tree is empty
+	 */
+	public boolean empty() {
+		return size() == 0;
+	}
+
+	/**
+	 * public int size()
+	 *
+	 * Returns the number of items in the tree. Changes that run at the same time may or may not be counted - O(shards)
+	 */
+	public int size() {
+		int size = 0;
+		for(Shard shard : this.shards)
+			size += shard.size;
+		return size;
+	}
+
+	/**
+	 * public String search(int k)
+	 *
+	 * returns the info of an item with key k if it exists in the tree
+	 * otherwise, returns null
+	 */
+	//Time complexity is O(log n), under the read lock of one shard.
+	public String search(int k) {
+		while(true) {
+			int i = shardOf(k);
+			Shard shard = this.shards[i];
+			shard.lock.readLock().lock();
+			try {
+				if(owns(i, k))
+					return shard.tree.search(k);
+			}
+			finally {
+				shard.lock.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * public boolean containsKey(int k)
+	 *
+	 * returns true if and only if an item with key k exists in the tree - O(log n)
+	 */
+	public boolean containsKey(int k) {
+		while(true) {
+			int i = shardOf(k);
+			Shard shard = this.shards[i];
+			shard.lock.readLock().lock();
+			try {
+				if(owns(i, k))
+					return shard.tree.containsKey(k);
+			}
+			finally {
+				shard.lock.readLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * public int insert(int k, String i)
+	 *
+	 * inserts an item with key k and info i to the tree.
+	 * returns the number of rebalancing operations of its shard, or -1 if an item with key k already exists in the tree.
+	 */
+	//Time complexity is O(log n) under the write lock of one shard, and O(log n) more when the shard is moved into its neighbour.
+	public int insert(int k, String i) {
+		while(true) {
+			int s = shardOf(k);
+			Shard shard = this.shards[s];
+			int res;
+			shard.lock.writeLock().lock();
+			try {
+				if(!owns(s, k))
+					continue;
+				res = shard.tree.insert(k, i);
+				if(res != -1)
+					shard.size++;
+			}
+			finally {
+				shard.lock.writeLock().unlock();
+			}
+			if(res != -1) {
+				int size = shard.size;
+				if(s + 1 < this.shards.length && size > 2 * this.shards[s + 1].size + MIN_MOVE)
+					balance(s);
+				else if(s > 0 && size > 2 * this.shards[s - 1].size + MIN_MOVE)
+					balance(s - 1);
+			}
+			return res;
+		}
+	}
+
+	/**
+	 * public int delete(int k)
+	 *
+	 * deletes an item with key k from the tree, if it is there.
+	 * returns the number of rebalancing operations of its shard, or -1 if an item with key k was not found in the tree.
+	 */
+	//Time complexity is O(log n), under the write lock of one shard.
+	public int delete(int k) {
+		while(true) {
+			int s = shardOf(k);
+			Shard shard = this.shards[s];
+			shard.lock.writeLock().lock();
+			try {
+				if(!owns(s, k))
+					continue;
+				int res = shard.tree.delete(k);
+				if(res != -1)
+					shard.size--;
+				return res;
+			}
+			finally {
+				shard.lock.writeLock().unlock();
+			}
+		}
+	}
+
+	/**
+	 * public int minKey()
+	 *
+	 * Returns the smallest key in the tree, or -1 if the tree is empty
+	 */
+	//Locks the shards from the first one until a non-empty one - O(shards + log n).
+	public int minKey() {
+		int locked = 0;
+		try {
+			for(; locked < this.shards.length; locked++) {
+				Shard shard = this.shards[locked];
+				shard.lock.readLock().lock();
+				if(!shard.tree.empty()) {
+					locked++;
+					return shard.tree.minKey();
+				}
+			}
+			return -1;
+		}
+		finally {
+			unlockRead(0, locked);
+		}
+	}
+
+	/**
+	 * public int maxKey()
+	 *
+	 * Returns the largest key in the tree, or -1 if the tree is empty
+	 */
+	//Locks all the shards, and reads the last non-empty one - O(shards + log n).
+	public int maxKey() {
+		lockRead(0, this.shards.length);
+		try {
+			for(int i = this.shards.length - 1; i >= 0; i--) {
+				if(!this.shards[i].tree.empty())
+					return this.shards[i].tree.maxKey();
+			}
+			return -1;
+		}
+		finally {
+			unlockRead(0, this.shards.length);
+		}
+	}
+
+	/**
+	 * public int[] keysToArray()
+	 *
+	 * Returns a sorted array which contains all keys in the tree,
+	 * or an empty array if the tree is empty.
+	 */
+	//The arrays of the shards one after the other, under the read locks of all of them - O(n) time.
+	public int[] keysToArray() {
+		lockRead(0, this.shards.length);
+		try {
+			int size = 0;
+			for(Shard shard : this.shards)
+				size += shard.size;
+			int[] arr = new int[size];
+			int pos = 0;
+			for(Shard shard : this.shards) {
+				if(shard.tree.empty())
+					continue;
+				int[] keys = shard.tree.keysToArray();
+				System.arraycopy(keys, 0, arr, pos, keys.length);
+				pos += keys.length;
+			}
+			return arr;
+		}
+		finally {
+			unlockRead(0, this.shards.length);
+		}
+	}
+
+	/**
+	 * public String[] infoToArray()
+	 *
+	 * Returns an array which contains all info in the tree,
+	 * sorted by their respective keys,
+	 * or an empty array if the tree is empty.
+	 */
+	//The arrays of the shards one after the other, under the read locks of all of them - O(n) time.
+	public String[] infoToArray() {
+		lockRead(0, this.shards.length);
+		try {
+			int size = 0;
+			for(Shard shard : this.shards)
+				size += shard.size;
+			String[] arr = new String[size];
+			int pos = 0;
+			for(Shard shard : this.shards) {
+				if(shard.tree.empty())
+					continue;
+				String[] infos = shard.tree.infoToArray();
+				System.arraycopy(infos, 0, arr, pos, infos.length);
+				pos += infos.length;
+			}
+			return arr;
+		}
+		finally {
+			unlockRead(0, this.shards.length);
+		}
+	}
+
+	/**
+	 * public int[] keysInRange(int lo, int hi)
+	 *
+	 * Returns a sorted array which contains the keys k of the tree with lo <= k <= hi,
+	 * or an empty array if there are none.
+	 */
+	//Only the shards of the range are locked, and every shard is walked only where it meets the range - O(shards + log n + m) for m keys.
+	public int[] keysInRange(int lo, int hi) {
+		if(lo > hi)
+			return new int[0];
+		int first;
+		int last;
+		while(true) {
+			first = shardOf(lo);
+			last = shardOf(hi);
+			lockRead(first, last + 1);
+			if(owns(first, lo) && owns(last, hi))
+				break;
+			unlockRead(first, last + 1);
+		}
+		try {
+			int[] arr = new int[16];
+			int count = 0;
+			for(int i = first; i <= last; i++) {
+				for(AVLTree.RangeIterator it = this.shards[i].tree.rangeIterator(lo, hi); it.hasNext(); ) {
+					if(count == arr.length)
+						arr = Arrays.copyOf(arr, count * 2);
+					arr[count++] = it.nextInt();
+				}
+			}
+			return Arrays.copyOf(arr, count);
+		}
+		finally {
+			unlockRead(first, last + 1);
+		}
+	}
+
+	/**
+	 * public void rebalance()
+	 *
+	 * Moves key ranges between neighbouring shards until no shard is larger than twice a neighbour plus MIN_MOVE.
+	 * It runs with the other operations, and only locks two neighbours at a time.
+	 */
+	//Every move takes O(log n) and halves the difference of the pair at least by a third.
+	public void rebalance() {
+		boolean moved = true;
+		while(moved) {
+			moved = false;
+			for(int i = 0; i + 1 < this.shards.length; i++)
+				moved |= balance(i);
+			for(int i = this.shards.length - 2; i >= 0; i--)
+				moved |= balance(i);
+		}
+	}
+
+	/*
+	 * Evens the shards i and i + 1 under both of their write locks, if one of them is larger than twice the other plus MIN_MOVE.
+	 * The larger shard is split by the key of its root, and the part next to the other shard is concatenated to it.
+	 * Returns true if it moved anything - O(log n)
+	 */
+	private boolean balance(int i) {
+		Shard left = this.shards[i];
+		Shard right = this.shards[i + 1];
+		left.lock.writeLock().lock();
+		right.lock.writeLock().lock();
+		try {
+			if(left.size > 2 * right.size + MIN_MOVE) {
+				AVLTree.IAVLNode root = left.tree.getRoot();
+				int k = root.getKey();
+				String info = root.getValue();
+				AVLTree[] parts = left.tree.split(k);
+				parts[0].insert(k, info);
+				left.tree = parts[0];
+				right.tree = concat(parts[1], right.tree);
+				right.low = (long) k + 1;
+			}
+			else if(right.size > 2 * left.size + MIN_MOVE) {
+				AVLTree.IAVLNode root = right.tree.getRoot();
+				int k = root.getKey();
+				String info = root.getValue();
+				AVLTree[] parts = right.tree.split(k);
+				AVLTree moved = concat(left.tree, parts[0]);
+				moved.insert(k, info);
+				left.tree = moved;
+				right.tree = parts[1];
+				right.low = (long) k + 1;
+			}
+			else
+				return false;
+			left.size = left.tree.size();
+			right.size = right.tree.size();
+			return true;
+		}
+		finally {
+			right.lock.writeLock().unlock();
+			left.lock.writeLock().unlock();
+		}
+	}
+
+	/*
+	 * Concatenates two trees with keys(low) < keys(high), into one of them: the minimum of high is taken out of it
+	 * and becomes the middle node of join - O(log n)
+	 */
+	static AVLTree concat(AVLTree low, AVLTree high) {
+		if(high.empty())
+			return low;
+		if(low.empty())
+			return high;
+		int k = high.minKey();
+		String info = high.min();
+		high.delete(k);
+		low.join(new AVLTree.AVLNode(AVLTree.VIRTUAL, AVLTree.VIRTUAL, null, k, info), high);
+		return low;
+	}
+
+	//Takes the read locks of the shards from (inclusive) to (exclusive), in key order
+	private void lockRead(int from, int to) {
+		for(int i = from; i < to; i++)
+			this.shards[i].lock.readLock().lock();
+	}
+
+	private void unlockRead(int from, int to) {
+		for(int i = to - 1; i >= from; i--)
+			this.shards[i].lock.readLock().unlock();
+	}
+}